@@ -0,0 +1,69 @@
+package com.chatalk.app.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * Chat logs of a server, sorted from oldest to most recent
+ * Only holds the messages, the view displaying them observes the list and creates nodes for the visible messages only
+ */
+public class ChatLog {
+	/**
+	 * Messages prepared for display, oldest first
+	 */
+	private ObservableList<LogEntry> entries;
+
+
+	public ChatLog() {
+		entries = FXCollections.observableArrayList();
+	}
+
+	/**
+	 * Returns the messages observed by the view
+	 * @return messages sorted from oldest to most recent
+	 */
+	public ObservableList<LogEntry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Adds a message after the most recent one
+	 * @param message The new message
+	 */
+	public void append(LogMessage message) {
+		entries.add(new LogEntry(message, entries.isEmpty() ? null : entries.get(entries.size()-1)));
+	}
+
+	/**
+	 * Adds a page of older messages before the oldest one
+	 * The entries and their day headers are built in a single pass and added to the list at once
+	 * @param page Messages sorted from most recent to oldest, as sent by the server
+	 */
+	public void prependHistory(List<LogMessage> page) {
+		if(page.isEmpty())
+			return;
+
+		ArrayList<LogEntry> olderEntries = new ArrayList<>(page.size());
+		LogEntry previous = null;
+		for(int i = page.size()-1; i >= 0; i--) {
+			previous = new LogEntry(page.get(i), previous);
+			olderEntries.add(previous);
+		}
+
+		//Oldest message displayed so far loses its day header if the page ends on the same day
+		if(!entries.isEmpty()) {
+			LogEntry oldest = entries.get(0);
+			LogEntry updated = oldest.after(previous);
+			if(updated != oldest)
+				entries.set(0, updated);
+		}
+		entries.addAll(0, olderEntries);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
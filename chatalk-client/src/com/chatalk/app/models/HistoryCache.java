@@ -0,0 +1,247 @@
+package com.chatalk.app.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * On-disk cache of the logs received from a server, kept between sessions
+ * One file per server address and username in ~/.chatalk/history
+ * Only the pages of logs sent by the server on login and with the history command are cached, so that the cache never
+ * misses a message older than its most recent one; the date of that message is sent on login and only the newer messages
+ * are downloaded
+ * The file starts with the history cursor followed by the messages, oldest first
+ */
+public class HistoryCache {
+	/**
+	 * Directory containing the cache files
+	 */
+	private static final File DIRECTORY = new File(System.getProperty("user.home"), ".chatalk" + File.separator + "history");
+
+	/**
+	 * Number of most recent messages kept, older ones can still be requested with the history command
+	 */
+	private static final int MAX_MESSAGES = 10000;
+
+	private File file;
+
+	/**
+	 * Messages, oldest first
+	 */
+	private ArrayList<LogMessage> messages;
+
+	/**
+	 * Date before which older logs have to be requested to the server, 0 if the cache holds all the logs
+	 */
+	private long historyCursor;
+
+
+	private HistoryCache(File file) {
+		this.file = file;
+		messages = new ArrayList<>();
+	}
+
+	/**
+	 * Loads the cache of a user on a server
+	 * An unreadable cache is considered empty
+	 * @param address Server IP address
+	 * @param port Server port
+	 * @param username User's username
+	 * @return The cache, empty if the user never logged in on this server from this computer
+	 */
+	public static HistoryCache load(String address, int port, String username) {
+		String name = (address + "_" + port + "_" + username).replaceAll("[^A-Za-z0-9._-]", "_");
+		HistoryCache cache = new HistoryCache(new File(DIRECTORY, name + ".log"));
+		if(!cache.file.exists())
+			return cache;
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache.file)))) {
+			cache.historyCursor = in.readLong();
+			while(true)
+				cache.messages.add(readMessage(in));
+		} catch(EOFException e) {
+			//End of the file, a message cut by a crash is ignored
+		} catch(IOException e) {
+			cache.messages.clear();
+			cache.historyCursor = 0;
+		}
+		return cache;
+	}
+
+	public boolean isEmpty() {
+		return messages.isEmpty();
+	}
+
+	/**
+	 * Returns the date of the most recent message
+	 * @return Timestamp sent on login, 0 if the cache is empty
+	 */
+	public long getLastTimestamp() {
+		return messages.isEmpty() ? 0 : messages.get(messages.size()-1).getDate().getTime();
+	}
+
+	public long getHistoryCursor() {
+		return historyCursor;
+	}
+
+	/**
+	 * Returns the cached messages
+	 * @return Messages sorted from most recent to oldest, like the pages sent by the server
+	 */
+	public ArrayList<LogMessage> getMessagesMostRecentFirst() {
+		ArrayList<LogMessage> mostRecentFirst = new ArrayList<>(messages.size());
+		for(int i = messages.size()-1; i >= 0; i--)
+			mostRecentFirst.add(messages.get(i));
+		return mostRecentFirst;
+	}
+
+	/**
+	 * Replaces the cached messages after a login that could not be answered with the newer messages only
+	 * @param page Messages sorted from most recent to oldest
+	 * @param historyCursor Cursor of the page
+	 * @throws IOException if the cache could not be written
+	 */
+	public void reset(List<LogMessage> page, long historyCursor) throws IOException {
+		messages.clear();
+		this.historyCursor = 0;
+		addOlder(page, 0, historyCursor);
+	}
+
+	/**
+	 * Adds the messages sent since the most recent cached one
+	 * The page starts with the messages having the same date as the most recent cached one, those already cached are skipped
+	 * @param page Messages sorted from most recent to oldest
+	 * @throws IOException if the cache could not be written
+	 */
+	public void addNewer(List<LogMessage> page) throws IOException {
+		//Cached messages having the same date as the most recent one
+		long last = getLastTimestamp();
+		ArrayList<LogMessage> sameDate = new ArrayList<>();
+		for(int i = messages.size()-1; i >= 0 && messages.get(i).getDate().getTime() == last; i--)
+			sameDate.add(messages.get(i));
+
+		for(int i = page.size()-1; i >= 0; i--) {
+			LogMessage message = page.get(i);
+			if(message.getDate().getTime() == last && removeSame(sameDate, message))
+				continue;
+			messages.add(message);
+		}
+		save();
+	}
+
+	/**
+	 * Removes a message from a list if it contains the same one
+	 * @param messages List of messages
+	 * @param message Message looked for
+	 * @return true if the message was found
+	 */
+	private static boolean removeSame(List<LogMessage> messages, LogMessage message) {
+		for(int i = 0; i < messages.size(); i++) {
+			LogMessage cached = messages.get(i);
+			if(cached.getType() == message.getType() && Objects.equals(cached.getAuthor(), message.getAuthor())
+					&& Objects.equals(cached.getRecipient(), message.getRecipient()) && Objects.equals(cached.getContent(), message.getContent())) {
+				messages.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a page of messages older than the oldest cached one
+	 * Ignored if the page does not directly precede the cached messages, which happens once older messages were dropped
+	 * to keep the cache under its size limit
+	 * @param page Messages sorted from most recent to oldest
+	 * @param requestCursor Cursor sent with the history command
+	 * @param historyCursor Cursor of the page
+	 * @throws IOException if the cache could not be written
+	 */
+	public void addOlder(List<LogMessage> page, long requestCursor, long historyCursor) throws IOException {
+		if(requestCursor != this.historyCursor)
+			return;
+
+		ArrayList<LogMessage> older = new ArrayList<>(page.size() + messages.size());
+		for(int i = page.size()-1; i >= 0; i--)
+			older.add(page.get(i));
+		older.addAll(messages);
+		messages = older;
+		this.historyCursor = historyCursor;
+		save();
+	}
+
+	/**
+	 * Rewrites the file, keeping the most recent messages only
+	 * The file is replaced atomically so a crash leaves the previous version
+	 */
+	private void save() throws IOException {
+		if(messages.size() > MAX_MESSAGES) {
+			//Messages having the same date as the oldest one kept are dropped as well, they are requested again with the older ones
+			int first = messages.size() - MAX_MESSAGES;
+			long dropped = messages.get(first-1).getDate().getTime();
+			while(first < messages.size() && messages.get(first).getDate().getTime() == dropped)
+				first++;
+			messages = new ArrayList<>(messages.subList(first, messages.size()));
+			historyCursor = messages.isEmpty() ? dropped + 1 : messages.get(0).getDate().getTime();
+		}
+
+		DIRECTORY.mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeLong(historyCursor);
+			for(LogMessage message : messages)
+				writeMessage(out, message);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeMessage(DataOutputStream out, LogMessage message) throws IOException {
+		out.writeLong(message.getDate().getTime());
+		out.writeByte(message.getType());
+		writeString(out, message.getAuthor());
+		writeString(out, message.getRecipient());
+		writeString(out, message.getContent());
+	}
+
+	private static LogMessage readMessage(DataInputStream in) throws IOException {
+		LogMessage message = new LogMessage();
+		message.setDate(in.readLong());
+		message.setType(in.readByte());
+		message.setAuthor(readString(in));
+		message.setRecipient(readString(in));
+		message.setContent(readString(in));
+		return message;
+	}
+
+	/**
+	 * Writes a string of any length as UTF-8, length -1 for null
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if(value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
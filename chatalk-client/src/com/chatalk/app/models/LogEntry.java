@@ -0,0 +1,99 @@
+package com.chatalk.app.models;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Message of the chat logs prepared for display
+ * Knows the day the message was sent and whether it is the first message of that day, in which case the date of the day is displayed above it
+ */
+public class LogEntry {
+	private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("EEEE MMMM dd, yyyy", Locale.getDefault());
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("'['HH:mm:ss']'", Locale.getDefault());
+
+	private LogMessage message;
+
+	/**
+	 * Day the message was sent, in the local time zone
+	 */
+	private LocalDate day;
+
+	/**
+	 * Date of the day displayed above the message, null if the message is not the first of its day
+	 */
+	private String dayHeader;
+
+	/**
+	 * Time and author displayed before the content, formatted the first time the message is displayed
+	 */
+	private String prefix;
+
+
+	/**
+	 * @param message Message
+	 * @param previous Entry displayed just before the message, null if it is the oldest one
+	 */
+	public LogEntry(LogMessage message, LogEntry previous) {
+		this(message, dayOf(message), previous);
+	}
+
+	private LogEntry(LogMessage message, LocalDate day, LogEntry previous) {
+		this.message = message;
+		this.day = day;
+		if(previous == null || !previous.day.equals(day))
+			dayHeader = DAY_FORMAT.format(day);
+	}
+
+	/**
+	 * Returns the same entry displayed after another one
+	 * Used when older messages are added before this one
+	 * @param previous Entry now displayed just before this one
+	 * @return This entry if its day header does not change, a copy otherwise
+	 */
+	public LogEntry after(LogEntry previous) {
+		boolean firstOfDay = previous == null || !previous.day.equals(day);
+		if(firstOfDay == (dayHeader != null))
+			return this;
+
+		return new LogEntry(message, day, previous);
+	}
+
+	public LogMessage getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns the date displayed above the message
+	 * @return Date of the day or null if the message is not the first of its day
+	 */
+	public String getDayHeader() {
+		return dayHeader;
+	}
+
+	/**
+	 * Returns the time and author of the message
+	 * @return Text displayed before the content of the message
+	 */
+	public String getPrefix() {
+		if(prefix == null) {
+			String time = TIME_FORMAT.format(Instant.ofEpochMilli(message.getDate().getTime()).atZone(ZoneId.systemDefault()));
+			if(message.getType() == 0)
+				prefix = time + "Server: ";
+			else if(message.getType() == 1)
+				prefix = time + message.getAuthor() + " -> " + message.getRecipient() + ": ";
+			else
+				prefix = time + message.getAuthor() + ": ";
+		}
+		return prefix;
+	}
+
+	/**
+	 * Returns the day a message was sent, in the local time zone
+	 */
+	private static LocalDate dayOf(LogMessage message) {
+		return Instant.ofEpochMilli(message.getDate().getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+}
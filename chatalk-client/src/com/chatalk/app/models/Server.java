@@ -1,17 +1,16 @@
 package com.chatalk.app.models;
 
 import java.io.DataOutputStream;
-import java.io.ObjectInputStream;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.chatalk.app.protocol.ResponseReader;
 
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.geometry.Pos;
-import javafx.scene.layout.VBox;
 
 /**
  * Server entity
@@ -44,25 +43,42 @@ public class Server {
 	private String user;
 	
 	/**
-	 * Server's VBox used to display the logs
-	 */
-	private VBox logsBox;
-	
-	/**
-	 * Server's logs list
+	 * Server's chat logs, displayed by the logs list view when the server is selected
 	 */
-	private ArrayList<LogMessage> logs;
+	private ChatLog chatLog;
 	
 	/**
 	 * Stream used to wait for response from server
 	 */
-	private ObjectInputStream inFromServer;
+	private ResponseReader inFromServer;
 	
 	/**
 	 * Stream used to write to server
 	 */
 	private DataOutputStream outToServer;
 	
+	/**
+	 * Date before which older logs have to be requested to the server
+	 * 0 if all the logs have been loaded
+	 */
+	private long historyCursor;
+	
+	/**
+	 * Set while the answer to the protocol negotiation has not been received
+	 */
+	private boolean negotiatingProtocol;
+	
+	/**
+	 * On-disk cache of the logs of the user logging in or logged in, null if the logs are not cached
+	 */
+	private HistoryCache historyCache;
+	
+	/**
+	 * Commands sent to the server and not answered yet, in the order they were sent
+	 * The server answers the commands of a connection in order, each response consumes the oldest one
+	 */
+	private ConcurrentLinkedQueue<String> pendingCommands;
+	
 	/**
 	 * Constructor.
 	 */
@@ -70,10 +86,8 @@ public class Server {
 		name = new SimpleStringProperty();
 		IPAddress = new SimpleStringProperty();
 		port = new SimpleIntegerProperty();
-		logsBox = new VBox();
-		logs = new ArrayList<>();
-		
-		logsBox.setAlignment(Pos.TOP_CENTER);
+		chatLog = new ChatLog();
+		pendingCommands = new ConcurrentLinkedQueue<>();
 	}
 	
 	/**
@@ -195,27 +209,15 @@ public class Server {
 		this.user = user;
 	}
 	
-	public VBox getLogsBox() {
-		return logsBox;
+	public ChatLog getChatLog() {
+		return chatLog;
 	}
 	
-	public void setLogsBox(VBox logsBox) {
-		this.logsBox = logsBox;
-	}
-	
-	public ArrayList<LogMessage> getLogs() {
-		return logs;
-	}
-	
-	public void setLogs(ArrayList<LogMessage> logs) {
-		this.logs = logs;
-	}
-	
-	public ObjectInputStream getInFromServer() {
+	public ResponseReader getInFromServer() {
 		return inFromServer;
 	}
 	
-	public void setInFromServer(ObjectInputStream inFromServer) {
+	public void setInFromServer(ResponseReader inFromServer) {
 		this.inFromServer = inFromServer;
 	}
 	
@@ -226,4 +228,46 @@ public class Server {
 	public void setOutToServer(DataOutputStream outToServer) {
 		this.outToServer = outToServer;
 	}
+	
+	public long getHistoryCursor() {
+		return historyCursor;
+	}
+	
+	public void setHistoryCursor(long historyCursor) {
+		this.historyCursor = historyCursor;
+	}
+	
+	public boolean isNegotiatingProtocol() {
+		return negotiatingProtocol;
+	}
+	
+	public void setNegotiatingProtocol(boolean negotiatingProtocol) {
+		this.negotiatingProtocol = negotiatingProtocol;
+	}
+	
+	public HistoryCache getHistoryCache() {
+		return historyCache;
+	}
+	
+	public void setHistoryCache(HistoryCache historyCache) {
+		this.historyCache = historyCache;
+	}
+	
+	/**
+	 * Records a command sent to the server
+	 * @param command Command as entered by the user
+	 */
+	public void addPendingCommand(String command) {
+		pendingCommands.add(command);
+	}
+	
+	/**
+	 * Returns the oldest command not answered yet
+	 * Called when its response is received
+	 * @return The command, empty if no command was pending
+	 */
+	public String pollPendingCommand() {
+		String command = pendingCommands.poll();
+		return command == null ? "" : command;
+	}
 }
@@ -0,0 +1,128 @@
+package com.chatalk.app.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import com.chatalk.app.models.LogMessage;
+
+/**
+ * Reads responses sent with the binary protocol
+ * Frames are decoded into the same objects as the ones sent with Java object serialization
+ * @see Protocol
+ */
+public class BinaryResponseReader implements ResponseReader {
+	/**
+	 * Frames longer than this are considered corrupted
+	 */
+	private static final int MAX_FRAME_LENGTH = 16777216;
+
+	private DataInputStream in;
+
+	/**
+	 * @param in Stream positioned right after the acknowledgement of the protocol negotiation
+	 */
+	public BinaryResponseReader(InputStream in) {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+	}
+
+	public Object readObject() throws Exception {
+		int length = in.read();
+		if(length < 0)
+			throw new EOFException();
+		length = (int) readVarLong(length);
+		if(length <= 0 || length > MAX_FRAME_LENGTH)
+			throw new IOException("invalidFrame");
+
+		byte[] frame = new byte[length];
+		in.readFully(frame);
+		ByteBuffer payload = ByteBuffer.wrap(frame);
+
+		byte opcode = payload.get();
+		String code = Protocol.codeOf(opcode);
+		if(code != null)
+			return code;
+
+		switch(opcode) {
+			case Protocol.TEXT:
+				return getString(payload);
+			case Protocol.MESSAGE:
+				return getMessage(payload);
+			case Protocol.CURSOR:
+				return getVarLong(payload);
+			case Protocol.MESSAGE_LIST: {
+				int size = (int) getVarLong(payload);
+				ArrayList<LogMessage> messages = new ArrayList<>(size);
+				for(int i = 0; i < size; i++)
+					messages.add(getMessage(payload));
+				return messages;
+			}
+			case Protocol.STRING_LIST: {
+				int size = (int) getVarLong(payload);
+				ArrayList<String> strings = new ArrayList<>(size);
+				for(int i = 0; i < size; i++)
+					strings.add(getString(payload));
+				return strings;
+			}
+			default:
+				throw new IOException("invalidFrame");
+		}
+	}
+
+	public void close() throws Exception {
+		in.close();
+	}
+
+	/**
+	 * Reads the frame length from the stream
+	 * @param first First byte of the length, already read
+	 */
+	private long readVarLong(int first) throws IOException {
+		long value = first & 0x7F;
+		int shift = 7;
+		int b = first;
+		while((b & 0x80) != 0) {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		}
+		return value;
+	}
+
+	private static LogMessage getMessage(ByteBuffer payload) {
+		LogMessage message = new LogMessage();
+		message.setDate(getVarLong(payload));
+		message.setType((int) getVarLong(payload));
+		message.setAuthor(getString(payload));
+		message.setRecipient(getString(payload));
+		message.setContent(getString(payload));
+		return message;
+	}
+
+	private static long getVarLong(ByteBuffer payload) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = payload.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return value;
+	}
+
+	private static String getString(ByteBuffer payload) {
+		int length = (int) getVarLong(payload) - 1;
+		if(length < 0)
+			return null;
+
+		String string = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+		payload.position(payload.position() + length);
+		return string;
+	}
+}
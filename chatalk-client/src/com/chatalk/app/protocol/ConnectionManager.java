@@ -0,0 +1,103 @@
+package com.chatalk.app.protocol;
+
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.chatalk.app.models.Server;
+
+/**
+ * Connections to the servers
+ * Each server has its own socket, streams and reader thread, the responses read from a server are handed over with the
+ * server they come from so they can never be applied to another one
+ */
+public class ConnectionManager {
+	/**
+	 * Receives the responses of the servers
+	 */
+	public interface ResponseHandler {
+		/**
+		 * Handles a response code read from a server
+		 * Executed on the reader thread of the server, the rest of the response is read from its current reader
+		 * @param server Server the response comes from
+		 * @param response Response code
+		 * @throws Exception if communication with server failed
+		 */
+		void handle(Server server, Object response) throws Exception;
+	}
+
+	private ResponseHandler handler;
+
+	/**
+	 * Reader thread of each connected server
+	 */
+	private Map<Server, Thread> readers;
+
+
+	/**
+	 * @param handler Receives the responses of every server
+	 */
+	public ConnectionManager(ResponseHandler handler) {
+		this.handler = handler;
+		readers = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Opens the connection with a server and starts listening to its responses
+	 * The binary protocol is requested, servers not supporting it keep using Java serialization
+	 * @param server Server to connect to
+	 * @throws Exception if the server could not be reached
+	 */
+	public void connect(Server server) throws Exception {
+		Socket socket = new Socket(server.getIPAddress(), server.getPort());
+		try {
+			server.setSocket(socket);
+			server.setInFromServer(new ObjectResponseReader(socket.getInputStream()));
+			server.setOutToServer(new DataOutputStream(socket.getOutputStream()));
+
+			server.setNegotiatingProtocol(true);
+			server.getOutToServer().writeBytes("protocol binary" + "\n");
+		} catch(Exception e) {
+			socket.close();
+			throw e;
+		}
+
+		Thread reader = new Thread(() -> listen(server), "chatalk-" + server.getIPAddress() + ":" + server.getPort());
+		reader.setDaemon(true);
+		readers.put(server, reader);
+		reader.start();
+	}
+
+	/**
+	 * Closes the connection with a server
+	 * Its reader thread stops once the socket is closed
+	 * @param server Server to disconnect from
+	 */
+	public void disconnect(Server server) {
+		readers.remove(server);
+		try {
+			server.getSocket().close();
+			server.getInFromServer().close();
+			server.getOutToServer().close();
+		} catch(Exception e) {}
+	}
+
+	/**
+	 * Waits for the responses of a server until the connection is closed
+	 * The reader is read again for each response since the protocol negotiation replaces it
+	 * @param server Server to listen to
+	 */
+	private void listen(Server server) {
+		try {
+			while(readers.containsKey(server)) {
+				Object response = server.getInFromServer().readObject(); //Wait for response from server
+				handler.handle(server, response);
+			}
+		} catch(Exception e) {
+			//Connection closed
+		} finally {
+			readers.remove(server);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.chatalk.app.protocol;
+
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+/**
+ * Reads responses sent with Java object serialization
+ * Used until the binary protocol is negotiated, or for good with servers that do not support it
+ */
+public class ObjectResponseReader implements ResponseReader {
+	private ObjectInputStream in;
+
+	public ObjectResponseReader(InputStream in) throws Exception {
+		this.in = new ObjectInputStream(in);
+	}
+
+	public Object readObject() throws Exception {
+		return in.readObject();
+	}
+
+	public void close() throws Exception {
+		in.close();
+	}
+}
@@ -0,0 +1,19 @@
+package com.chatalk.app.protocol;
+
+/**
+ * Reads the responses sent by the server
+ */
+public interface ResponseReader {
+	/**
+	 * Waits for the next response from the server
+	 * @return Response code, LogMessage, list of LogMessages, list of usernames or history cursor
+	 * @throws Exception if communication with server failed
+	 */
+	Object readObject() throws Exception;
+
+	/**
+	 * Closes the stream
+	 * @throws Exception if stream could not be closed
+	 */
+	void close() throws Exception;
+}
@@ -1,21 +1,19 @@
 package com.chatalk.app.views;
 
-import java.io.DataOutputStream;
-import java.io.ObjectInputStream;
-import java.net.Socket;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 
 import com.chatalk.app.MainApp;
+import com.chatalk.app.models.ChatLog;
+import com.chatalk.app.models.HistoryCache;
+import com.chatalk.app.models.LogEntry;
 import com.chatalk.app.models.LogMessage;
 import com.chatalk.app.models.Server;
+import com.chatalk.app.protocol.BinaryResponseReader;
+import com.chatalk.app.protocol.ConnectionManager;
 
-import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.collections.FXCollections;
-import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
@@ -25,21 +23,22 @@ import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
-import javafx.scene.control.ScrollPane;
-import javafx.scene.control.Separator;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonBar.ButtonData;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
-import javafx.scene.paint.Color;
 import javafx.util.Pair;
 
 public class ClientController {
+	/**
+	 * Number of older messages requested at once with the history command
+	 */
+	private static final int HISTORY_PAGE_SIZE = 50;
+	
     /**
      * Main controller
      * @see MainApp
@@ -53,10 +52,11 @@ public class ClientController {
     private ListView<Server> serversListView;
 	
 	/**
-	 * JavaFX ScrollPane containing the list of chat logs
+	 * JavaFX list displaying the chat logs of the selected server
+	 * Only the visible messages have nodes, cells are recycled while scrolling
 	 */
 	@FXML
-	private ScrollPane chatLogs;
+	private ListView<LogEntry> chatLogs;
 	
 	@FXML
 	private TextField console;
@@ -66,17 +66,25 @@ public class ClientController {
 	 */
 	private ArrayList<Server> servers;
 	
-	private Socket clientSocket;
+	/**
+	 * Connections to the servers, each server's responses are read by its own thread
+	 */
+	private ConnectionManager connections;
+	
+	/**
+	 * Updates of the view produced by the server responses, applied once per frame
+	 */
+	private InboundBuffer inbound;
 	
 	/**
-	 * Stream used to wait for response from server
+	 * Set when messages were added after the most recent one, the logs are scrolled once the current batch of updates is applied
 	 */
-	private ObjectInputStream inFromServer;
+	private boolean scrollPending;
 	
 	/**
-	 * Stream used to write to server
+	 * Set when messages were received from other users, the notification sound is played once the current batch of updates is applied
 	 */
-	private DataOutputStream outToServer;
+	private boolean notificationPending;
 	
 	/**
      * The constructor.
@@ -84,6 +92,7 @@ public class ClientController {
      */
 	public ClientController() {
 		servers = new ArrayList<>();
+		connections = new ConnectionManager(this::handleServerResponse);
 	}
 	
 	/**
@@ -93,6 +102,13 @@ public class ClientController {
 	@FXML
     private void initialize() {
 		loadListServers();
+		chatLogs.setCellFactory(param -> new LogMessageCell());
+		inbound = new InboundBuffer(() -> {
+			if(scrollPending)
+				scrollToMostRecent();
+			if(notificationPending)
+				playNotification();
+		});
 		
 		//If no server is selected, console field is disabled
 		console.disableProperty().bind(Bindings.isEmpty(serversListView.getSelectionModel().getSelectedItems()));
@@ -160,41 +176,19 @@ public class ClientController {
 						throw new Exception("serverInstanceAlreadyRunning");
 				}
 				
-				//Initiate server contact
-				clientSocket = new Socket(server.getIPAddress(), server.getPort());
-				inFromServer = new ObjectInputStream(clientSocket.getInputStream());
-		    	outToServer = new DataOutputStream(clientSocket.getOutputStream());
-				server.setSocket(clientSocket);
-				server.setInFromServer(inFromServer);
-				server.setOutToServer(outToServer);
+				//Initiate server contact, its responses are listened to as soon as the connection is established
+				connections.connect(server);
 				
 				//Display welcome message
-				VBox logsBox = server.getLogsBox();
-				ArrayList<LogMessage> logs = server.getLogs();
-				DateFormat dateFormat = new SimpleDateFormat("EEEE MMMM dd, yyyy");
-				Label messageDate = new Label(dateFormat.format(new Date()));
-				logsBox.getChildren().add(messageDate);
-				logsBox.getChildren().add(new Separator());
 				LogMessage welcomeMessage = new LogMessage();
 				welcomeMessage.setType(0);
 				welcomeMessage.setContent("Connection with server established. Please identify yourself.");
 				welcomeMessage.setDate(new Date().getTime());
-				HBox logMessage = new HBox();
-		    	Label messageTime = new Label(new SimpleDateFormat("[HH:mm:ss]").format(welcomeMessage.getDate()) + "Server: ");
-		    	Label messageContent = new Label(welcomeMessage.getContent());
-				messageContent.setTextFill(Color.RED);
-				logMessage.getChildren().add(messageTime);
-				logMessage.getChildren().add(messageContent);
-				logsBox.getChildren().add(logMessage);
-				logs.add(welcomeMessage);
-				server.setLogs(logs);
-				server.setLogsBox(logsBox);
-				chatLogs.setContent(logsBox);
-				chatLogs.vvalueProperty().bind(logsBox.heightProperty());
+				server.getChatLog().append(welcomeMessage);
+				chatLogs.setItems(server.getChatLog().getEntries());
 				
 				servers.add(server);
 				loadListServers();
-				listenToServerResponse();
 			} catch(Exception e) {
 				event.consume();
 				
@@ -242,131 +236,132 @@ public class ClientController {
     public void handleConsoleCommand() throws Exception {
     	//Server the user is currently communicating with
     	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0);
+    	
+    	//History command without arguments loads the page preceding the oldest message displayed
+    	//Until a login succeeds, the server answers it so that the user is told to log in
+    	if(console.getText().trim().equalsIgnoreCase("history")) {
+    		if(server.getUser() != null && server.getHistoryCursor() == 0) {
+    			LogMessage message = new LogMessage();
+    			message.setType(0);
+    			message.setContent("No older messages.");
+    			message.setDate(new Date().getTime());
+    			updateLogsWithNewMessages(message);
+    			scrollToMostRecent();
+    			
+    			console.clear();
+    		} else {
+    			server.addPendingCommand(console.getText());
+    			server.getOutToServer().writeBytes("history " + server.getHistoryCursor() + " " + HISTORY_PAGE_SIZE + "\n");
+    		}
+    		return;
+    	}
+    	
+    	//Login without a date --> Send the date of the most recent cached message so that only the newer ones are sent back
+    	String[] parts = console.getText().trim().split(" ");
+    	if(parts.length > 0 && parts[0].equals("login")) {
+    		HistoryCache cache = null;
+    		if(parts.length == 3) {
+    			cache = HistoryCache.load(server.getIPAddress(), server.getPort(), parts[1]);
+    			if(!cache.isEmpty()) {
+    				server.setHistoryCache(cache);
+    				server.addPendingCommand(console.getText());
+    				server.getOutToServer().writeBytes(console.getText().trim() + " " + cache.getLastTimestamp() + "\n");
+    				return;
+    			}
+    		}
+    		server.setHistoryCache(cache);
+    	}
+    	
+    	//Responses are read on the server's own thread, they find the command they answer in its pending commands
+    	server.addPendingCommand(console.getText());
     	server.getOutToServer().writeBytes(console.getText() + "\n"); //Send command to server
     }
     
     /**
-     * Adds a new log message to the logs VBOX
+     * Adds a new log message to the chat logs
      * Executed everytime the user submits a command through the console line
      * @param message Message to be added
      * @throws Exception if message could not be added
      */
-    public void updateVBoxLogsWithNewMessages(LogMessage message) throws Exception {
+    public void updateLogsWithNewMessages(LogMessage message) throws Exception {
     	//Server the user is currently communicating with
-    	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0);
-    	VBox logsBox = server.getLogsBox();
-    	ArrayList<LogMessage> logs = server.getLogs();
-    	
-    	//If this message is the first in the logs list --> Show its date
-    	if(logs.size() == 0) {
-    		DateFormat dateFormat = new SimpleDateFormat("EEEE MMMM dd, yyyy");
-			Label messageDate = new Label(dateFormat.format(message.getDate()));
-			logsBox.getChildren().add(messageDate);
-			logsBox.getChildren().add(new Separator());
-    	} else {
-	    	//If this message has a different date than the previous one --> Show its date
-	    	DateFormat dateWithoutTimeFormatter = new SimpleDateFormat("dd/MM/yyyy");
-			Date newMessageDate = dateWithoutTimeFormatter.parse(dateWithoutTimeFormatter.format(message.getDate()));
-			Date prevMessageDate = dateWithoutTimeFormatter.parse(dateWithoutTimeFormatter.format(logs.get(logs.size()-1).getDate()));
-			if(newMessageDate.after(prevMessageDate)) {
-				DateFormat dateFormat = new SimpleDateFormat("EEEE MMMM dd, yyyy");
-				Label messageDate = new Label(dateFormat.format(message.getDate()));
-				logsBox.getChildren().add(0, messageDate);
-				logsBox.getChildren().add(1, new Separator());
-			}
-    	}
-		
-    	//Format the message
-    	HBox logMessage = new HBox();
-    	Label messageTime = new Label();
-    	if(message.getType() == 0)
-    		messageTime.setText(new SimpleDateFormat("[HH:mm:ss]").format(message.getDate()) + "Server: ");
-    	else if(message.getType() == 1)
-    		messageTime.setText(new SimpleDateFormat("[HH:mm:ss]").format(message.getDate()) + message.getAuthor() + " -> " + message.getRecipient() + ": ");
-    	else
-    		messageTime.setText(new SimpleDateFormat("[HH:mm:ss]").format(message.getDate()) + message.getAuthor() + ": ");
-		Label messageContent = new Label(message.getContent());
-		if(message.getType() == 0)
-			messageContent.setTextFill(Color.RED);
-		else if(message.getType() == 1)
-			messageContent.setTextFill(Color.BLUE);
-		else if(message.getType() == 2)
-			messageContent.setTextFill(Color.ORANGE);
-		
-		//Save the message in the VBox
-		logMessage.getChildren().add(messageTime);
-		logMessage.getChildren().add(messageContent);
-		logsBox.getChildren().add(logMessage);
-		
-		//Save the logs locally --> This log list is disregarded after the user logs out
-		logs.add(message);
-		server.setLogs(logs);
-		server.setLogsBox(logsBox);
-		
-		//Update view
-		chatLogs.setContent(logsBox);
+    	updateLogsWithNewMessages((Server) serversListView.getSelectionModel().getSelectedItems().get(0), message);
     }
     
     /**
-     * Adds a previous message to the logs VBox
-     * Executed after the user logs in to load the previous chat logs
-     * Messages are received in ascending order
-     * @param message The message to be added
+     * Adds a new log message to the chat logs of a server
+     * Executed for each response of the server, whether it is the selected one or not
+     * @param server Server the message belongs to
+     * @param message Message to be added
      * @throws Exception if message could not be added
      */
-    public void updateVBoxLogsWithPriorMessages(LogMessage message) throws Exception {
-    	//Server the user is currently communicating with
-    	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0);
-    	VBox logsBox = server.getLogsBox();
-    	ArrayList<LogMessage> logs = server.getLogs();
-    	
-    	int i = 0; //Index used to know where to add the message in the VBox
-    	if(logs.size() > 0) {
-    		DateFormat dateWithoutTimeFormatter = new SimpleDateFormat("dd/MM/yyyy");
-    		Date newMessageDate = dateWithoutTimeFormatter.parse(dateWithoutTimeFormatter.format(message.getDate()));
-    		Date nextMessageDate = dateWithoutTimeFormatter.parse(dateWithoutTimeFormatter.format(logs.get(0).getDate()));
-    		
-    		//If the date of the message to be added comes before the next message date -> Show its date
-    		if(newMessageDate.before(nextMessageDate)) {
-    			DateFormat dateFormat = new SimpleDateFormat("EEEE MMMM dd, yyyy");
-    			Label messageDate = new Label(dateFormat.format(message.getDate()));
-    			logsBox.getChildren().add(i, messageDate);
-    			logsBox.getChildren().add(i+1, new Separator());
-    			
-    			i = i+2;
-    		} else if(logsBox.getChildren().get(i+1) instanceof Separator) //Otherwise if first message the VBox is the message date
-    			i = i+2; //To display the message after the separator
-    	}
-    	
-    	//Format the message
-    	HBox logMessage = new HBox();
-    	Label messageTime = new Label();
-    	if(message.getType() == 0)
-    		messageTime.setText(new SimpleDateFormat("[HH:mm:ss]").format(message.getDate()) + "Server: ");
-    	else if(message.getType() == 1)
-    		messageTime.setText(new SimpleDateFormat("[HH:mm:ss]").format(message.getDate()) + message.getAuthor() + " -> " + message.getRecipient() + ": ");
-    	else
-    		messageTime.setText(new SimpleDateFormat("[HH:mm:ss]").format(message.getDate()) + message.getAuthor() + ": ");
-		Label messageContent = new Label(message.getContent());
-		if(message.getType() == 0)
-			messageContent.setTextFill(Color.RED);
-		else if(message.getType() == 1)
-			messageContent.setTextFill(Color.BLUE);
-		else if(message.getType() == 2)
-			messageContent.setTextFill(Color.ORANGE);
+    public void updateLogsWithNewMessages(Server server, LogMessage message) throws Exception {
+    	ChatLog chatLog = server.getChatLog();
 		
-		//Save the message in the VBox
-		logMessage.getChildren().add(messageTime);
-		logMessage.getChildren().add(messageContent);
-		logsBox.getChildren().add(i, logMessage);
+		//Save the logs locally --> This log list is disregarded after the user logs out, the pages sent by the server are also kept in the history cache
+		chatLog.append(message);
 		
-		//Save the logs locally --> This log list is disregarded after the user logs out
-		logs.add(0, message);
-		server.setLogs(logs);
-		server.setLogsBox(logsBox);
-		
-		//Update view
-		chatLogs.setContent(logsBox);
+		//Most recent message is brought into view once per frame, not for each message of a burst
+		if(isSelected(server))
+			scrollPending = true;
+    }
+    
+    /**
+     * Checks if the logs of a server are the ones displayed
+     * @param server Server
+     * @return true if the server is selected in the servers list
+     */
+    private boolean isSelected(Server server) {
+    	return serversListView.getSelectionModel().getSelectedItem() == server;
+    }
+    
+    /**
+     * Clears the console after a command has been answered
+     * Can be called from any thread, the console is only cleared on the JavaFX thread if the server that answered is still
+     * selected and the console still holds the command
+     * @param server Server that answered
+     * @param command Command entered by the user
+     */
+    private void clearConsole(Server server, String command) {
+    	inbound.post(new Runnable() {
+            @Override public void run() {
+            	if(isSelected(server) && console.getText().equals(command))
+            		console.clear();
+            }
+    	});
+    }
+    
+    /**
+     * Plays the notification sound of the received messages
+     */
+    private void playNotification() {
+    	notificationPending = false;
+    	try {
+        	Media media = new Media(getClass().getResource("/notification.mp3").toURI().toString());
+            MediaPlayer player = new MediaPlayer(media); 
+            player.play();
+    	} catch(Exception e) {}
+    }
+    
+    /**
+     * Scrolls the chat logs to the most recent message
+     */
+    private void scrollToMostRecent() {
+    	scrollPending = false;
+    	chatLogs.scrollTo(chatLogs.getItems().size()-1);
+    }
+    
+    /**
+     * Adds a page of previous messages to the chat logs
+     * Executed after the user logs in to load the previous chat logs, and for each older page requested
+     * The whole page is added before the oldest message displayed in a single update of the view
+     * @param server Server the messages belong to
+     * @param messages The messages to be added, sorted from most recent to oldest
+     * @throws Exception if messages could not be added
+     */
+    public void updateLogsWithPriorMessages(Server server, ArrayList<LogMessage> messages) throws Exception {
+		//Save the logs locally --> This log list is disregarded after the user logs out, the pages sent by the server are also kept in the history cache
+    	server.getChatLog().prependHistory(messages);
     }
     
     /**
@@ -377,12 +372,8 @@ public class ClientController {
     	//Server the user is currently communicating with
     	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0);
     	
-    	clientSocket = server.getSocket();
-    	inFromServer = server.getInFromServer();
-    	outToServer = server.getOutToServer();
-    	
-    	VBox logsBox = server.getLogsBox();
-    	chatLogs.setContent(logsBox);
+    	chatLogs.setItems(server.getChatLog().getEntries());
+    	chatLogs.scrollTo(server.getChatLog().size()-1);
     }
     
     /*
@@ -392,142 +383,142 @@ public class ClientController {
      */
     
     /**
-     * Listens to server responses and redirects to sub-methods based on command received from server
-     * Is executed in background
+     * Redirects to sub-methods based on command received from server
+     * Is executed by the reader thread of the server, the view updates are posted to the inbound buffer
+     * @param server Server the response comes from
+     * @param serverResponse Response code
      * @throws Exception if communication with server failed
      */
-    public void listenToServerResponse() throws Exception {
-    	Task<Void> task = new Task<Void>() {
-			@Override
-			protected Void call() throws Exception {
-				while(true) {
-					Object serverResponse = inFromServer.readObject(); //Wait for response from server
-					
-					if(serverResponse.equals("reg"))
-						registrationResponse();
-		            else if(serverResponse.equals("login"))
-		            	loginResponse();
-		            else if(serverResponse.equals("message"))
-		            	messageResponse();
-		            else if(serverResponse.equals("broadcast"))
-		            	broadcastResponse();
-		            else if(serverResponse.equals("whoseonline"))
-		            	onlineUsersResponse();
-		            else if(serverResponse.equals("wholasthr"))
-		            	onlineUsersLastHourResponse();
-		            else if(serverResponse.equals("block"))
-		            	blockResponse();
-		            else if(serverResponse.equals("ublock"))
-		            	unblockResponse();
-		            else if(serverResponse.equals("logout"))
-		            	logoutResponse();
-		            else if(serverResponse.equals("messageReceived"))
-		            	messageReceivedResponse();
-		            else if(serverResponse.equals("invalidCommand"))
-		            	invalidCommandResponse();
-				}
-			}
-   	 	};
-   	 	
-   	 	Thread thread = new Thread(task);
-   	 	thread.setDaemon(true);
-   	 	thread.start();
+    public void handleServerResponse(Server server, Object serverResponse) throws Exception {
+    	if(serverResponse.equals("reg"))
+    		registrationResponse(server);
+    	else if(serverResponse.equals("login"))
+    		loginResponse(server);
+    	else if(serverResponse.equals("message"))
+    		messageResponse(server);
+    	else if(serverResponse.equals("broadcast"))
+    		broadcastResponse(server);
+    	else if(serverResponse.equals("whoseonline"))
+    		onlineUsersResponse(server);
+    	else if(serverResponse.equals("wholasthr"))
+    		onlineUsersLastHourResponse(server);
+    	else if(serverResponse.equals("block"))
+    		blockResponse(server);
+    	else if(serverResponse.equals("ublock"))
+    		unblockResponse(server);
+    	else if(serverResponse.equals("history"))
+    		historyResponse(server);
+    	else if(serverResponse.equals("logout"))
+    		logoutResponse(server);
+    	else if(serverResponse.equals("protocol"))
+    		protocolResponse(server);
+    	else if(serverResponse.equals("messageReceived"))
+    		messageReceivedResponse(server);
+    	else if(serverResponse.equals("invalidCommand"))
+    		invalidCommandResponse(server);
     }
     
     /**
      * Waits for server response after user's registration attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void registrationResponse() throws Exception {
-    	//Server the user is currently communicating with
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void registrationResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//If user submitted invalid command
     	if(serverResponse.equals("invalidCommand")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
-                		errorMessage.setContent("Invalid command: " + console.getText());
+                		errorMessage.setContent("Invalid command: " + command);
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("userIsLoggedIn")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("You are already logged in.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("usernameCannotBeLessThan3Chars")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Username cannot be less than 3 characters.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("passwordCannotBeLessThan6Chars")) { 
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Password cannot be less than 6 characters.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("usernameAlreadyExists")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Username already exists.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("userRegistered")) {
     		//Display success message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage successMessage = new LogMessage();
                 		successMessage.setType(0);
                 		successMessage.setContent("Registration successful. You can now login.");
                 		successMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(successMessage);
+                		updateLogsWithNewMessages(server, successMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
@@ -536,216 +527,330 @@ public class ClientController {
     
     /**
      * Waits for server response after user's login attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void loginResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void loginResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
 
     	//If user submitted invalid command
     	if(serverResponse.equals("invalidCommand")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
 		    		try {
 		        		LogMessage errorMessage = new LogMessage();
 		        		errorMessage.setType(0);
-		        		errorMessage.setContent("Invalid command: " + console.getText());
+		        		errorMessage.setContent("Invalid command: " + command);
 		        		errorMessage.setDate(new Date().getTime());
-		        		updateVBoxLogsWithNewMessages(errorMessage);
+		        		updateLogsWithNewMessages(server, errorMessage);
 		        	} catch(Exception e) {}
                 }
     		});
     	} else if(serverResponse.equals("invalidCredentials")) { //If user provided invalid credentials
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
 		    		try {
 		    			LogMessage errorMessage = new LogMessage();
 		        		errorMessage.setType(0);
 		        		errorMessage.setContent("Access refused: Invalid credentials.");
 		        		errorMessage.setDate(new Date().getTime());
-		        		updateVBoxLogsWithNewMessages(errorMessage);
+		        		updateLogsWithNewMessages(server, errorMessage);
 		        	} catch(Exception e) {}
                 }
     		});
     		
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("userAlreadyLoggedIn")) { //If user is already logged in
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
 		    		try {
 			    		LogMessage errorMessage = new LogMessage();
 			    		errorMessage.setType(0);
 			    		errorMessage.setContent("Access refused: User already logged in.");
 			    		errorMessage.setDate(new Date().getTime());
-			    		updateVBoxLogsWithNewMessages(errorMessage);
+			    		updateLogsWithNewMessages(server, errorMessage);
 		        	} catch(Exception e) {}
                 }
     		});
     		
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("accessRestricted")) { //If user is not allowed to login
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
 		    		try {
 		    			LogMessage errorMessage = new LogMessage();
 			    		errorMessage.setType(0);
 			    		errorMessage.setContent("Access restricted: Too many attempts. Try again later.");
 			    		errorMessage.setDate(new Date().getTime());
-			    		updateVBoxLogsWithNewMessages(errorMessage);
+			    		updateLogsWithNewMessages(server, errorMessage);
 		        	} catch(Exception e) {}
                 }
     		});
 	    
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("loginSuccessful")) { //If user logged in successfully
     		//Save user's username
-        	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0); //Server the user is currently communicating with
-    		server.setUser(console.getText().split(" ")[1]);
+    		server.setUser(command.split(" ")[1]);
     		
     		//Display success message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
 		    		try {
 		    			LogMessage successMessage = new LogMessage();
 		        		successMessage.setType(0);
 		        		successMessage.setContent("Login successful. Welcome back!");
 		        		successMessage.setDate(new Date().getTime());
-		        		updateVBoxLogsWithNewMessages(successMessage);
+		        		updateLogsWithNewMessages(server, successMessage);
 		        	} catch(Exception e) {}
                 }
     		});
 			
-    		ArrayList<LogMessage> logs = (ArrayList<LogMessage>) inFromServer.readObject();
-    		for(LogMessage message : logs) {
-    			Platform.runLater(new Runnable() {
-                    @Override public void run() {
-    		    		try {
-    		    			updateVBoxLogsWithPriorMessages(message);
-    		        	} catch(Exception e) {}
-                    }
-        		});
+    		//Only the most recent messages are sent, older ones are loaded with the history command
+    		ArrayList<LogMessage> page = (ArrayList<LogMessage>) server.getInFromServer().readObject();
+    		long historyCursor = (Long) server.getInFromServer().readObject();
+    		
+    		//Update the history cache, cursor 0 with a cache means the page holds every message newer than the cached ones
+    		ArrayList<LogMessage> logs = page;
+    		HistoryCache cache = server.getHistoryCache();
+    		try {
+	    		if(cache != null && !cache.isEmpty() && historyCursor == 0) {
+	    			cache.addNewer(page);
+	    			logs = cache.getMessagesMostRecentFirst();
+	    			historyCursor = cache.getHistoryCursor();
+	    		} else if(cache != null)
+	    			cache.reset(page, historyCursor);
+    		} catch(Exception e) {
+    			server.setHistoryCache(null); //Cache could not be written, the logs are not cached for this session
+    		}
+    		server.setHistoryCursor(historyCursor);
+    		
+    		ArrayList<LogMessage> displayedLogs = logs;
+    		inbound.post(new Runnable() {
+                @Override public void run() {
+		    		try {
+		    			updateLogsWithPriorMessages(server, displayedLogs);
+		        	} catch(Exception e) {}
+                }
+    		});
+    		
+    		//Show the most recent messages
+    		inbound.post(new Runnable() {
+                @Override public void run() {
+                	if(isSelected(server))
+                		scrollToMostRecent();
+                }
+        	});
+    		
+    		clearConsole(server, command);
+    	}
+    }
+    
+    /**
+     * Waits for server response after user's older logs request
+     * @param server Server the response comes from
+     * @throws Exception if communication with server failed
+     */
+    public void historyResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
+    	
+    	//If user submitted invalid command
+    	if(serverResponse.equals("invalidCommand")) {
+    		//Display error message
+    		inbound.post(new Runnable() {
+                @Override public void run() {
+                	try {
+                		LogMessage errorMessage = new LogMessage();
+                		errorMessage.setType(0);
+                		errorMessage.setContent("Invalid command: " + command);
+                		errorMessage.setDate(new Date().getTime());
+                		updateLogsWithNewMessages(server, errorMessage);
+                	} catch(Exception e) {}
+                }
+        	});
+    	} else if(serverResponse.equals("notLoggedIn")) { //Check if user is logged in
+    		//Display error message
+    		inbound.post(new Runnable() {
+                @Override public void run() {
+                	try {
+                		LogMessage errorMessage = new LogMessage();
+                		errorMessage.setType(0);
+                		errorMessage.setContent("Access refused: Not logged in.");
+                		errorMessage.setDate(new Date().getTime());
+                		updateLogsWithNewMessages(server, errorMessage);
+                		
+                		clearConsole(server, command);
+                	} catch(Exception e) {}
+                }
+        	});
+    	} else { //Page of older logs, sorted from most recent to oldest
+    		ArrayList<LogMessage> logs = (ArrayList<LogMessage>) serverResponse;
+    		long requestCursor = server.getHistoryCursor();
+    		server.setHistoryCursor((Long) server.getInFromServer().readObject());
+    		
+    		//Keep the page in the history cache
+    		if(server.getHistoryCache() != null) {
+    			try {
+    				server.getHistoryCache().addOlder(logs, requestCursor, server.getHistoryCursor());
+    			} catch(Exception e) {
+    				server.setHistoryCache(null);
+    			}
     		}
+    		inbound.post(new Runnable() {
+                @Override public void run() {
+		    		try {
+		    			updateLogsWithPriorMessages(server, logs);
+		        	} catch(Exception e) {}
+                }
+    		});
     		
-    		console.clear();
+    		//Show the oldest message loaded
+    		inbound.post(new Runnable() {
+                @Override public void run() {
+                	if(isSelected(server))
+                		chatLogs.scrollTo(0);
+                	clearConsole(server, command);
+                }
+        	});
     	}
     }
     
     /**
      * Waits for server response after user's message sending attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void messageResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void messageResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//If user submitted invalid command
     	if(serverResponse.equals("invalidCommand")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
-                		errorMessage.setContent("Invalid command: " + console.getText());
+                		errorMessage.setContent("Invalid command: " + command);
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("notLoggedIn")) { //Check if user is logged in
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Access refused: Not logged in.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     		
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("invalidRecipient")) { //If user sent message to himself
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("You cannot send a message to yourself.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     		
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("recipientNotFound")) { //If recipient does not exist
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Recipient not found.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     		
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("recipientIsBlocked")) { //If user blocked the recipient
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Message cannot be sent: User is in your blocked list.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     		
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("authorIsBlocked")) { //If recipient does not exist
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Message cannot be sent: Recipient has added you to his blocked list.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     		
-    		console.clear();
+    		clearConsole(server, command);
     	} else if(serverResponse.equals("messageSaved")) { //If message saved successfully
     		//Display sent message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
-                    	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0); //Server the user is currently communicating with
-                		
-                    	String[] command = console.getText().split(" ", 3);
+                    	String[] arguments = command.split(" ", 3);
                 		LogMessage message = new LogMessage();
                 		message.setType(1);
                 		message.setAuthor(server.getUser());
-                		message.setContent(command[2]);
-                		message.setRecipient(command[1]);
+                		message.setContent(arguments[2]);
+                		message.setRecipient(arguments[1]);
                 		message.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(message);
+                		updateLogsWithNewMessages(server, message);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
@@ -754,56 +859,62 @@ public class ClientController {
     
     /**
      * Waits for server response after user's broadcast message sending attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void broadcastResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void broadcastResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//If user submitted invalid command
     	if(serverResponse.equals("invalidCommand")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
-                		errorMessage.setContent("Invalid command: " + console.getText());
+                		errorMessage.setContent("Invalid command: " + command);
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("notLoggedIn")) { //Check if user is logged in
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Access refused: Not logged in.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("messageSaved")) { //If message saved successfully
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
-                    	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0); //Server the user is currently communicating with
-                    	
-                		String[] command = console.getText().split(" ", 2);
+                		String[] arguments = command.split(" ", 2);
                 		LogMessage message = new LogMessage();
                 		message.setType(2);
                 		message.setAuthor(server.getUser());
-                		message.setContent(command[1]);
+                		message.setContent(arguments[1]);
                 		message.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(message);
+                		updateLogsWithNewMessages(server, message);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
@@ -812,22 +923,30 @@ public class ClientController {
 
     /**
      * Waits for server response after user's online users retrieval attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void onlineUsersResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void onlineUsersResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//Display list of online users
-		Platform.runLater(new Runnable() {
+		inbound.post(new Runnable() {
             @Override public void run() {
             	try {
             		LogMessage message = new LogMessage();
             		message.setType(0);
             		message.setContent("Online users: " + serverResponse.toString());
             		message.setDate(new Date().getTime());
-            		updateVBoxLogsWithNewMessages(message);
+            		updateLogsWithNewMessages(server, message);
             		
-            		console.clear();
+            		clearConsole(server, command);
             	} catch(Exception e) {}
             }
     	});
@@ -835,22 +954,30 @@ public class ClientController {
 
     /**
      * Waits for server response after user's online users during last hour retrieval attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void onlineUsersLastHourResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void onlineUsersLastHourResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//Display list of online users
-    	Platform.runLater(new Runnable() {
+    	inbound.post(new Runnable() {
             @Override public void run() {
             	try {
             		LogMessage message = new LogMessage();
             		message.setType(0);
             		message.setContent("Online users during the past hour: " + serverResponse.toString());
             		message.setDate(new Date().getTime());
-            		updateVBoxLogsWithNewMessages(message);
+            		updateLogsWithNewMessages(server, message);
             		
-            		console.clear();
+            		clearConsole(server, command);
             	} catch(Exception e) {}
             }
     	});
@@ -858,98 +985,106 @@ public class ClientController {
     
     /**
      * Waits for server response after user's block attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void blockResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void blockResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//If user submitted invalid command
     	if(serverResponse.equals("invalidCommand")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
-                		errorMessage.setContent("Invalid command: " + console.getText());
+                		errorMessage.setContent("Invalid command: " + command);
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("notLoggedIn")) { //Check if user is logged in
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Access refused: Not logged in.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("invalidUser")) { //If user tries to block himself
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("You cannot send block yourself.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("userNotFound")) { //If user to be blocked doesn't exist
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("User to be blocked not found.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("userAlreadyBlocked")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("User has already been blocked.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("userBlocked")) { //If user has been blocked
     		//Display success message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
-                		String[] command = console.getText().split(" ", 2);
+                		String[] arguments = command.split(" ", 2);
                 		LogMessage message = new LogMessage();
                 		message.setType(0);
-                		message.setContent("User " + command[1] + " has been blocked.");
+                		message.setContent("User " + arguments[1] + " has been blocked.");
                 		message.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(message);
+                		updateLogsWithNewMessages(server, message);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
@@ -958,69 +1093,77 @@ public class ClientController {
 
     /**
      * Waits for server response after user's unblock attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void unblockResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void unblockResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//If user submitted invalid command
     	if(serverResponse.equals("invalidCommand")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
-                		errorMessage.setContent("Invalid command: " + console.getText());
+                		errorMessage.setContent("Invalid command: " + command);
                 		errorMessage.setDate(new Date().getTime());
                 		
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("notLoggedIn")) { //Check if user is logged in
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Access refused: Not logged in.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("userNotBlocked")) { //If user to be unblocked is not blocked
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("User not blocked.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("userUnblocked")) { //If user has been unblocked
     		//Display success message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
-                		String[] command = console.getText().split(" ", 2);
+                		String[] arguments = command.split(" ", 2);
                 		LogMessage message = new LogMessage();
                 		message.setType(0);
-                		message.setContent("User " + command[1] + " has been unblocked.");
+                		message.setContent("User " + arguments[1] + " has been unblocked.");
                 		message.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(message);
+                		updateLogsWithNewMessages(server, message);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
@@ -1029,62 +1172,67 @@ public class ClientController {
 
     /**
      * Waits for server response after user's logout attempt
+     * @param server Server the response comes from
      * @throws Exception if communication with server fail
      */
-    public void logoutResponse() throws Exception {
-    	Object serverResponse = inFromServer.readObject(); //Wait for response from server
+    public void logoutResponse(Server server) throws Exception {
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	//If the command was sent too fast, it was not processed
+    	if(serverResponse.equals("rateLimited")) {
+    		rateLimitedResponse(server, command);
+    		return;
+    	}
     	
     	//If user submitted invalid command
     	if(serverResponse.equals("invalidCommand")) {
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
-                		errorMessage.setContent("Invalid command: " + console.getText());
+                		errorMessage.setContent("Invalid command: " + command);
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("notLoggedIn")) { //Check if user is logged in
     		//Display error message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage errorMessage = new LogMessage();
                 		errorMessage.setType(0);
                 		errorMessage.setContent("Access refused: Not logged in.");
                 		errorMessage.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(errorMessage);
+                		updateLogsWithNewMessages(server, errorMessage);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 	} catch(Exception e) {}
                 }
         	});
     	} else if(serverResponse.equals("loggedOut")){ //Otherwise, user has been logged out successfully
-    		outToServer.writeBytes("clientLoggedOut" + "\n"); //Send acknowledgement back to server
+    		server.getOutToServer().writeBytes("clientLoggedOut" + "\n"); //Send acknowledgement back to server
     		
     		//Close the connection
-    		clientSocket.close();
-    		inFromServer.close();
-    		outToServer.close();
+    		connections.disconnect(server);
     		
     		//Display success message
-    		Platform.runLater(new Runnable() {
+    		inbound.post(new Runnable() {
                 @Override public void run() {
                 	try {
                 		LogMessage message = new LogMessage();
                 		message.setType(0);
                 		message.setContent("You have been logged out. Bye.");
                 		message.setDate(new Date().getTime());
-                		updateVBoxLogsWithNewMessages(message);
+                		updateLogsWithNewMessages(server, message);
                 		
-                		console.clear();
+                		clearConsole(server, command);
                 		
             	    	//Remove the server from the list of servers and reload the list
-            	    	Server server = (Server) serversListView.getSelectionModel().getSelectedItems().get(0); //Server the user is currently communicating with
             	    	servers.remove(server);
             	    	loadListServers();
                 	} catch(Exception e) {}
@@ -1095,40 +1243,81 @@ public class ClientController {
 
     /**
      * If server responds with an invalidCommand statement
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void invalidCommandResponse() throws Exception {
-		Platform.runLater(new Runnable() {
+    public void invalidCommandResponse(Server server) throws Exception {
+    	//Server does not know the protocol command, keep using Java serialization
+    	if(server.isNegotiatingProtocol()) {
+    		server.setNegotiatingProtocol(false);
+    		return;
+    	}
+    	String command = server.pollPendingCommand(); //Command the response answers
+    	
+		inbound.post(new Runnable() {
             @Override public void run() {
             	try {
             		LogMessage message = new LogMessage();
             		message.setType(0);
-            		message.setContent("Invalid command: " + console.getText());
+            		message.setContent("Invalid command: " + command);
             		message.setDate(new Date().getTime());
-            		updateVBoxLogsWithNewMessages(message);
+            		updateLogsWithNewMessages(server, message);
             		
-            		console.clear();
+            		clearConsole(server, command);
             	} catch(Exception e) {}
             }
     	});
     }
 
+    /**
+     * Displays the refusal of a command sent too fast
+     * The server rejects commands over its rate limits without processing them, the command can be sent again later
+     * @param server Server the response comes from
+     * @param command Command rejected
+     */
+    public void rateLimitedResponse(Server server, String command) {
+		inbound.post(new Runnable() {
+            @Override public void run() {
+            	try {
+            		LogMessage message = new LogMessage();
+            		message.setType(0);
+            		message.setContent("Too many commands: " + command + " was not processed, try again in a moment.");
+            		message.setDate(new Date().getTime());
+            		updateLogsWithNewMessages(server, message);
+            	} catch(Exception e) {}
+            }
+    	});
+    }
+
+    /**
+     * Waits for server response after protocol negotiation
+     * If the binary protocol is accepted, every following response is read with the binary reader
+     * @param server Server the response comes from
+     * @throws Exception if communication with server failed
+     */
+    public void protocolResponse(Server server) throws Exception {
+    	Object serverResponse = server.getInFromServer().readObject(); //Wait for response from server
+    	
+    	server.setNegotiatingProtocol(false);
+    	
+    	//Next responses of this server are read with the binary reader
+    	if(serverResponse.equals("binary"))
+    		server.setInFromServer(new BinaryResponseReader(server.getSocket().getInputStream()));
+    }
+    
     /**
      * If server sends a message from a client directly
+     * @param server Server the response comes from
      * @throws Exception if communication with server failed
      */
-    public void messageReceivedResponse() throws Exception {
-    	LogMessage serverResponse = (LogMessage) inFromServer.readObject(); //Wait for response from server
+    public void messageReceivedResponse(Server server) throws Exception {
+    	LogMessage serverResponse = (LogMessage) server.getInFromServer().readObject(); //Wait for response from server
     	
-    	Platform.runLater(new Runnable() {
+    	inbound.post(new Runnable() {
             @Override public void run() {
             	try {
-            		updateVBoxLogsWithNewMessages(serverResponse);
-            		
-            		//Play notification sound
-                	Media media = new Media(getClass().getResource("/notification.mp3").toURI().toString());
-                    MediaPlayer player = new MediaPlayer(media); 
-                    player.play();
+            		updateLogsWithNewMessages(server, serverResponse);
+            		notificationPending = true; //Played once for all the messages of the batch
             	} catch(Exception e) {}
             }
     	});
@@ -0,0 +1,84 @@
+package com.chatalk.app.views;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+/**
+ * Buffer of the view updates produced by the server responses
+ * Filled by the threads listening to the servers and drained by the JavaFX thread once per frame, instead of one
+ * Platform.runLater per response
+ * Each frame applies the pending updates in order until the buffer is empty or the frame budget is spent, what is left is
+ * applied in the next frames so a burst of messages never freezes the window
+ */
+public class InboundBuffer extends AnimationTimer {
+	/**
+	 * Time given to the updates in each frame, half of a 60 Hz frame
+	 */
+	private static final long FRAME_BUDGET_NANOS = 8000000;
+
+	/**
+	 * Updates waiting for the next frame, in the order they were posted
+	 */
+	private ConcurrentLinkedQueue<Runnable> updates = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Set while the timer is started or about to be
+	 * The timer is stopped when the buffer is empty so that idle windows do not run code on every frame
+	 */
+	private AtomicBoolean running = new AtomicBoolean();
+
+	/**
+	 * Executed on the JavaFX thread after each batch of updates
+	 */
+	private Runnable onBatchApplied;
+
+
+	/**
+	 * @param onBatchApplied Executed after each batch of updates, for the work to be done once per frame (scrolling)
+	 */
+	public InboundBuffer(Runnable onBatchApplied) {
+		this.onBatchApplied = onBatchApplied;
+	}
+
+	/**
+	 * Adds an update to be applied on the JavaFX thread with the next frame
+	 * Can be called from any thread
+	 * @param update Update of the view
+	 */
+	public void post(Runnable update) {
+		updates.add(update);
+		if(running.compareAndSet(false, true))
+			Platform.runLater(this::start);
+	}
+
+	/**
+	 * Applies the pending updates
+	 * Executed on the JavaFX thread with each frame while the timer is started
+	 * @param now Timestamp of the frame
+	 */
+	@Override
+	public void handle(long now) {
+		long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+		Runnable update;
+		while((update = updates.poll()) != null) {
+			try {
+				update.run();
+			} catch(Exception e) {}
+
+			if(System.nanoTime() > deadline)
+				break;
+		}
+		onBatchApplied.run();
+
+		//Stop the timer once the buffer has been emptied, unless an update was posted meanwhile
+		if(updates.isEmpty()) {
+			stop();
+			running.set(false);
+			if(!updates.isEmpty() && running.compareAndSet(false, true))
+				start();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.chatalk.app.views;
+
+import com.chatalk.app.models.LogEntry;
+import com.chatalk.app.models.LogMessage;
+
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.Separator;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+
+/**
+ * Cell displaying a message of the chat logs
+ * Cells are recycled by the list view, only the visible messages have nodes
+ * The first message of a day is decorated with the date of the day
+ */
+public class LogMessageCell extends ListCell<LogEntry> {
+	/**
+	 * Date of the day, followed by a separator
+	 * Only displayed above the first message of a day
+	 */
+	private VBox dayHeader;
+	private Label dayLabel;
+
+	private Label timeLabel;
+	private Label contentLabel;
+
+	/**
+	 * Nodes of the cell, reused for every message it displays
+	 */
+	private VBox graphic;
+
+
+	public LogMessageCell() {
+		dayLabel = new Label();
+		dayHeader = new VBox(dayLabel, new Separator());
+		dayHeader.setFillWidth(true);
+
+		timeLabel = new Label();
+		contentLabel = new Label();
+		graphic = new VBox(dayHeader, new HBox(timeLabel, contentLabel));
+	}
+
+	@Override
+	protected void updateItem(LogEntry entry, boolean empty) {
+		super.updateItem(entry, empty);
+
+		if(empty || entry == null) {
+			setGraphic(null);
+			return;
+		}
+
+		//First message of its day --> Show its date
+		boolean firstOfDay = entry.getDayHeader() != null;
+		dayHeader.setVisible(firstOfDay);
+		dayHeader.setManaged(firstOfDay);
+		if(firstOfDay)
+			dayLabel.setText(entry.getDayHeader());
+
+		//Format the message
+		LogMessage message = entry.getMessage();
+		timeLabel.setText(entry.getPrefix());
+		contentLabel.setText(message.getContent());
+		if(message.getType() == 0)
+			contentLabel.setTextFill(Color.RED);
+		else if(message.getType() == 1)
+			contentLabel.setTextFill(Color.BLUE);
+		else if(message.getType() == 2)
+			contentLabel.setTextFill(Color.ORANGE);
+		else
+			contentLabel.setTextFill(Color.BLACK); //Cell may have displayed a colored message before
+
+		setGraphic(graphic);
+	}
+}
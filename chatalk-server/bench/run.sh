@@ -0,0 +1,11 @@
+#!/bin/sh
+# Compiles the server and the benchmark suite, then runs the suite
+# Only needs a JDK: the JSON library is the one shipped with the server
+# Usage: bench/run.sh [options of BenchmarkRunner]
+cd "$(dirname "$0")/.." || exit 1
+
+rm -rf bench/build
+mkdir -p bench/build
+javac -nowarn -encoding UTF-8 -d bench/build -cp json-20170516.jar $(find src bench/src -name '*.java') || exit 1
+
+exec java -cp bench/build:json-20170516.jar com.chatalk.app.bench.BenchmarkRunner "$@"
@@ -0,0 +1,38 @@
+package com.chatalk.app.bench;
+
+/**
+ * Operation measured by the benchmark suite
+ * Each benchmark runs in its own JVM, started in a copy of a generated dataset, so the server's singletons are loaded from that dataset
+ */
+public interface Benchmark {
+	/**
+	 * Prepares the benchmark, called once before the warmup
+	 * @param users Number of users of the dataset
+	 * @param logs Number of log messages of the dataset
+	 * @throws Exception if the dataset could not be loaded
+	 */
+	void setup(int users, int logs) throws Exception;
+
+	/**
+	 * Runs the operation once
+	 * @return Result of the operation, consumed by the harness
+	 * @throws Exception if the operation failed
+	 */
+	Object run() throws Exception;
+
+	/**
+	 * Checks if the logs must have been moved to the message log before the benchmark starts
+	 * @return false if the benchmark reads the logs of the JSON data file
+	 */
+	default boolean needsMessageLog() {
+		return true;
+	}
+
+	/**
+	 * Checks if the results depend on the number of users
+	 * @return false if the benchmark is only run with the first number of users
+	 */
+	default boolean dependsOnUsers() {
+		return true;
+	}
+}
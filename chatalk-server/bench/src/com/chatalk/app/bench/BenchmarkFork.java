@@ -0,0 +1,61 @@
+package com.chatalk.app.bench;
+
+/**
+ * Runs one benchmark in a dedicated JVM
+ * Started by the runner in a copy of the dataset, prints a single RESULT line read back by the runner
+ * Each iteration repeats the operation for a fixed time, the warmup iterations let the JIT compile the measured code
+ *
+ * Usage: BenchmarkFork <benchmark> <users> <logs> <warmup iterations> <iterations> <iteration ms>
+ */
+public class BenchmarkFork {
+	public static void main(String[] args) throws Exception {
+		String name = args[0];
+		int users = Integer.parseInt(args[1]);
+		int logs = Integer.parseInt(args[2]);
+		int warmupIterations = Integer.parseInt(args[3]);
+		int iterations = Integer.parseInt(args[4]);
+		long iterationNanos = Long.parseLong(args[5]) * 1000000;
+
+		Benchmark benchmark = Benchmarks.create(name);
+		benchmark.setup(users, logs);
+
+		for(int i = 0; i < warmupIterations; i++)
+			iterate(benchmark, iterationNanos);
+
+		//Time per operation of every measured iteration
+		double[] results = new double[iterations];
+		long operations = 0;
+		for(int i = 0; i < iterations; i++) {
+			long[] iteration = iterate(benchmark, iterationNanos);
+			results[i] = (double) iteration[1] / iteration[0];
+			operations += iteration[0];
+		}
+
+		double mean = 0;
+		for(double result : results)
+			mean += result / iterations;
+		double variance = 0;
+		for(double result : results)
+			variance += (result - mean) * (result - mean) / Math.max(1, iterations - 1);
+
+		System.out.println("RESULT " + name + " " + users + " " + logs + " " + mean + " " + Math.sqrt(variance) + " " + operations);
+		System.exit(0); //Background threads of the server must not keep the fork alive
+	}
+
+	/**
+	 * Runs the operation until the iteration time has elapsed, at least once
+	 * @return Number of operations and elapsed time in ns
+	 */
+	private static long[] iterate(Benchmark benchmark, long iterationNanos) throws Exception {
+		long operations = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			Blackhole.consume(benchmark.run());
+			operations++;
+			elapsed = System.nanoTime() - start;
+		} while(elapsed < iterationNanos);
+
+		return new long[] {operations, elapsed};
+	}
+}
@@ -0,0 +1,265 @@
+package com.chatalk.app.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Runs the benchmark suite on generated datasets
+ * Datasets are generated once in bench/datasets for every combination of sizes, in the JSON format and already migrated to the message log
+ * Every benchmark and dataset runs in a new JVM started in a fresh copy of the dataset, so that neither the JIT nor the server's
+ * singletons carry state from one measurement to the next
+ * Must be run from the server directory, see bench/run.sh
+ *
+ * Usage: BenchmarkRunner [--benchmarks regex] [--users 100,10000] [--logs 1000,100000] [--warmup 3] [--iterations 5] [--time 1000]
+ *                        [--jvm "-Xmx2g"] [--config resources/config.json] [--label name]
+ *        BenchmarkRunner --compare before.csv after.csv
+ */
+public class BenchmarkRunner {
+	private static final File DATASETS = new File("bench/datasets");
+	private static final File WORK = new File("bench/work/fork");
+	private static final File RESULTS = new File("bench/results");
+
+	public static void main(String[] args) throws Exception {
+		if(args.length == 3 && args[0].equals("--compare")) {
+			compare(load(new File(args[1])), load(new File(args[2])));
+			return;
+		}
+
+		//Default options, overridden by the command line
+		String benchmarks = ".*";
+		int[] users = {100, 10000};
+		int[] logs = {1000, 100000};
+		int warmup = 3;
+		int iterations = 5;
+		int time = 1000;
+		String jvm = "-Xmx2g";
+		File config = new File("resources/config.json");
+		String label = null;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i];
+			String value = args[i+1];
+			if(option.equals("--benchmarks"))
+				benchmarks = value;
+			else if(option.equals("--users"))
+				users = parseSizes(value);
+			else if(option.equals("--logs"))
+				logs = parseSizes(value);
+			else if(option.equals("--warmup"))
+				warmup = Integer.parseInt(value);
+			else if(option.equals("--iterations"))
+				iterations = Integer.parseInt(value);
+			else if(option.equals("--time"))
+				time = Integer.parseInt(value);
+			else if(option.equals("--jvm"))
+				jvm = value;
+			else if(option.equals("--config"))
+				config = new File(value);
+			else if(option.equals("--label"))
+				label = value;
+			else
+				throw new IllegalArgumentException("Unknown option " + option);
+		}
+
+		Pattern filter = Pattern.compile(benchmarks);
+		ArrayList<String> names = new ArrayList<>();
+		for(String name : Benchmarks.getNames())
+			if(filter.matcher(name).find())
+				names.add(name);
+		if(names.isEmpty())
+			throw new IllegalArgumentException("No benchmark matches " + benchmarks + ", available: " + Benchmarks.getNames());
+
+		ArrayList<String> jvmOptions = new ArrayList<>();
+		for(String option : jvm.trim().split("\\s+"))
+			if(!option.isEmpty())
+				jvmOptions.add(option);
+
+		PrintWriter csv = null;
+		if(label != null) {
+			RESULTS.mkdirs();
+			csv = new PrintWriter(new File(RESULTS, label + ".csv"));
+			csv.println("benchmark,users,logs,nsPerOp,stddev,operations");
+		}
+
+		System.out.println(String.format("%-22s %8s %9s %14s %12s %14s", "benchmark", "users", "logs", "ns/op", "stddev", "ops/s"));
+		for(int userCount : users) {
+			for(int logCount : logs) {
+				File dataset = prepare(userCount, logCount, config, jvmOptions);
+				for(String name : names) {
+					Benchmark benchmark = Benchmarks.create(name);
+					if(!benchmark.dependsOnUsers() && userCount != users[0])
+						continue;
+
+					String[] result = fork(new File(dataset, benchmark.needsMessageLog() ? "log" : "json"), jvmOptions,
+							name, userCount, logCount, warmup, iterations, time);
+					if(result == null)
+						continue;
+
+					double nsPerOp = Double.parseDouble(result[4]);
+					double stddev = Double.parseDouble(result[5]);
+					System.out.println(String.format("%-22s %8d %9d %14.1f %12.1f %14.1f", name, userCount, logCount, nsPerOp, stddev, 1000000000.0 / nsPerOp));
+					if(csv != null) {
+						csv.println(name + "," + userCount + "," + logCount + "," + nsPerOp + "," + stddev + "," + result[6]);
+						csv.flush();
+					}
+				}
+			}
+		}
+
+		if(csv != null) {
+			csv.close();
+			System.out.println("Results written to " + new File(RESULTS, label + ".csv").getPath());
+		}
+		deleteRecursively(WORK);
+	}
+
+	/**
+	 * Generates the dataset of the given sizes if it does not exist yet
+	 * @return Directory of the dataset, containing the json and log working directories
+	 */
+	private static File prepare(int users, int logs, File config, ArrayList<String> jvmOptions) throws Exception {
+		File dataset = new File(DATASETS, users + "-" + logs);
+		File json = new File(dataset, "json");
+		File log = new File(dataset, "log");
+		if(new File(log, "resources/data.json").exists())
+			return dataset;
+
+		System.out.println("Generating dataset " + users + " users, " + logs + " logs");
+		deleteRecursively(dataset);
+		DatasetGenerator.create(json, users, logs, config);
+
+		//The migration runs in its own JVM, from the working directory it migrates
+		copyRecursively(json, log);
+		ArrayList<String> command = javaCommand(jvmOptions);
+		command.add("com.chatalk.app.tools.MigrateDataFile");
+		Process process = new ProcessBuilder(command).directory(log).inheritIO().start();
+		if(process.waitFor() != 0) {
+			deleteRecursively(dataset);
+			throw new IOException("Could not migrate dataset " + dataset.getPath());
+		}
+
+		return dataset;
+	}
+
+	/**
+	 * Runs a benchmark in a new JVM, in a copy of a working directory
+	 * @return Fields of the RESULT line, null if the benchmark failed
+	 */
+	private static String[] fork(File source, ArrayList<String> jvmOptions, String name, int users, int logs, int warmup, int iterations, int time) throws Exception {
+		deleteRecursively(WORK);
+		copyRecursively(source, WORK);
+
+		ArrayList<String> command = javaCommand(jvmOptions);
+		command.addAll(Arrays.asList(BenchmarkFork.class.getName(), name, String.valueOf(users), String.valueOf(logs),
+				String.valueOf(warmup), String.valueOf(iterations), String.valueOf(time)));
+		Process process = new ProcessBuilder(command).directory(WORK).redirectErrorStream(true).start();
+
+		String[] result = null;
+		String lastLine = null;
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.startsWith("RESULT "))
+					result = line.split(" ");
+				else if(!line.trim().isEmpty())
+					lastLine = line;
+			}
+		}
+
+		if(process.waitFor() != 0 || result == null) {
+			System.out.println(String.format("%-22s %8d %9d FAILED: %s", name, users, logs, lastLine));
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Builds the command starting a JVM with the classpath of the runner
+	 * Classpath entries are made absolute since the forks run in another directory
+	 */
+	private static ArrayList<String> javaCommand(ArrayList<String> jvmOptions) {
+		ArrayList<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(jvmOptions);
+
+		StringBuilder classpath = new StringBuilder();
+		for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if(classpath.length() > 0)
+				classpath.append(File.pathSeparator);
+			classpath.append(new File(entry).getAbsolutePath());
+		}
+		command.add("-cp");
+		command.add(classpath.toString());
+
+		return command;
+	}
+
+	/**
+	 * Prints the relative change of every benchmark present in both result files
+	 */
+	private static void compare(LinkedHashMap<String, double[]> before, LinkedHashMap<String, double[]> after) {
+		System.out.println(String.format("%-40s %14s %14s %9s", "benchmark (users/logs)", "before ns/op", "after ns/op", "change"));
+		for(String key : before.keySet()) {
+			double[] previous = before.get(key);
+			double[] current = after.get(key);
+			if(current == null)
+				continue;
+
+			//Changes within the error margins of both runs are not significant
+			double change = (current[0] - previous[0]) / previous[0] * 100;
+			boolean significant = Math.abs(current[0] - previous[0]) > previous[1] + current[1];
+			System.out.println(String.format("%-40s %14.1f %14.1f %+8.1f%%%s", key, previous[0], current[0], change, significant ? "" : " ~"));
+		}
+	}
+
+	/**
+	 * Reads a result file
+	 * @return Time per operation and standard deviation, keyed by benchmark and sizes
+	 */
+	private static LinkedHashMap<String, double[]> load(File file) throws IOException {
+		LinkedHashMap<String, double[]> results = new LinkedHashMap<>();
+		try(BufferedReader in = new BufferedReader(new FileReader(file))) {
+			in.readLine(); //Header
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] fields = line.split(",");
+				results.put(fields[0] + " (" + fields[1] + "/" + fields[2] + ")", new double[] {Double.parseDouble(fields[3]), Double.parseDouble(fields[4])});
+			}
+		}
+		return results;
+	}
+
+	private static int[] parseSizes(String sizes) {
+		return Arrays.stream(sizes.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	private static void copyRecursively(File source, File destination) throws IOException {
+		Path root = source.toPath();
+		destination.getParentFile().mkdirs();
+		try(Stream<Path> paths = Files.walk(root)) {
+			for(Path path : (Iterable<Path>) paths::iterator)
+				Files.copy(path, destination.toPath().resolve(root.relativize(path)));
+		}
+	}
+
+	private static void deleteRecursively(File file) throws IOException {
+		if(!file.exists())
+			return;
+
+		try(Stream<Path> paths = Files.walk(file.toPath())) {
+			for(Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(path);
+		}
+	}
+}
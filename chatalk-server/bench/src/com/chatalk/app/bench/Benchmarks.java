@@ -0,0 +1,193 @@
+package com.chatalk.app.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+import com.chatalk.app.Config;
+import com.chatalk.app.models.DataFileReader;
+import com.chatalk.app.models.LogMessage;
+import com.chatalk.app.models.LogMessageDAO;
+import com.chatalk.app.models.MessageLog;
+import com.chatalk.app.models.User;
+import com.chatalk.app.models.UserDAO;
+import com.chatalk.app.util.ArraySorting;
+
+/**
+ * Benchmarks of the persistence and history paths
+ * The DAO benchmarks go through the public DAOs only, so another storage backend placed behind them is measured by the same code
+ * and its results can be compared with the previous ones
+ */
+public class Benchmarks {
+	/**
+	 * Benchmarks keyed by name, in the order they are run
+	 */
+	private static final LinkedHashMap<String, Supplier<Benchmark>> BENCHMARKS = new LinkedHashMap<>();
+
+	static {
+		BENCHMARKS.put("userDao.getUsers", () -> new UserBenchmark() {
+			public Object run() throws Exception {
+				return userDAO.getUsers();
+			}
+		});
+		BENCHMARKS.put("userDao.getUser", () -> new UserBenchmark() {
+			public Object run() throws Exception {
+				return userDAO.getUser(randomUsername());
+			}
+		});
+		BENCHMARKS.put("userDao.update", () -> new UserBenchmark() {
+			public Object run() throws Exception {
+				User user = users.get(random.nextInt(users.size()));
+				user.setLastConnectionDate(System.currentTimeMillis());
+				userDAO.update(user);
+				return user;
+			}
+		});
+		BENCHMARKS.put("logDao.add", () -> new LogBenchmark() {
+			public Object run() throws Exception {
+				LogMessage message = new LogMessage();
+				message.setAuthor(randomUsername());
+				message.setRecipient(randomUsername());
+				message.setContent("Benchmark message");
+				message.setType(1);
+				message.setDate(System.currentTimeMillis());
+				logMessageDAO.add(message);
+				return message;
+			}
+		});
+		BENCHMARKS.put("logDao.getLogs.page", () -> new LogBenchmark() {
+			public Object run() throws Exception {
+				return logMessageDAO.getLogs(users.get(random.nextInt(users.size())), Long.MAX_VALUE, 50);
+			}
+		});
+		BENCHMARKS.put("logDao.getLogs.all", () -> new LogBenchmark() {
+			public Object run() throws Exception {
+				return logMessageDAO.getLogs(users.get(random.nextInt(users.size())));
+			}
+		});
+		BENCHMARKS.put("arraySorting.sort", SortBenchmark::new);
+		BENCHMARKS.put("messageLog.readAll", () -> new LogBenchmark() {
+			public Object run() throws Exception {
+				return MessageLog.getInstance().readAll();
+			}
+		});
+		BENCHMARKS.put("jsonFile.parseDom", () -> new JsonFileBenchmark() {
+			public Object run() throws Exception {
+				return Config.parseDataFile();
+			}
+		});
+		BENCHMARKS.put("jsonFile.stream", () -> new JsonFileBenchmark() {
+			public Object run() throws Exception {
+				long[] records = new long[1];
+				new DataFileReader().read(user -> records[0]++, log -> records[0]++);
+				return records;
+			}
+		});
+		BENCHMARKS.put("jsonFile.snapshot", () -> new Benchmark() {
+			private JSONObject data;
+
+			public void setup(int users, int logs) throws Exception {
+				MessageLog.getInstance();
+				data = Config.parseDataFile();
+			}
+
+			public Object run() throws Exception {
+				Config.updateDataFile(data);
+				return data;
+			}
+		});
+	}
+
+	/**
+	 * Returns the names of the benchmarks
+	 * @return Names, in the order they are run
+	 */
+	public static ArrayList<String> getNames() {
+		return new ArrayList<>(BENCHMARKS.keySet());
+	}
+
+	/**
+	 * Creates a benchmark
+	 * @param name Benchmark name
+	 * @return The benchmark or null if no benchmark has this name
+	 */
+	public static Benchmark create(String name) {
+		Supplier<Benchmark> benchmark = BENCHMARKS.get(name);
+		return benchmark == null ? null : benchmark.get();
+	}
+
+	/**
+	 * Benchmark of the user DAO, with a copy of every user at hand
+	 */
+	private static abstract class UserBenchmark implements Benchmark {
+		protected UserDAO userDAO = new UserDAO();
+		protected ArrayList<User> users;
+		protected Random random = new Random(42);
+
+		public void setup(int users, int logs) throws Exception {
+			this.users = userDAO.getUsers();
+		}
+
+		protected String randomUsername() {
+			return users.get(random.nextInt(users.size())).getUsername();
+		}
+	}
+
+	/**
+	 * Benchmark of the log message DAO, the message index is built during the setup
+	 */
+	private static abstract class LogBenchmark extends UserBenchmark {
+		protected LogMessageDAO logMessageDAO = new LogMessageDAO();
+
+		public void setup(int users, int logs) throws Exception {
+			super.setup(users, logs);
+			logMessageDAO.hasLogsBefore(this.users.get(0), 0);
+		}
+	}
+
+	/**
+	 * Benchmark reading the data file as generated, logs included
+	 */
+	private static abstract class JsonFileBenchmark implements Benchmark {
+		public void setup(int users, int logs) {}
+
+		public boolean needsMessageLog() {
+			return false;
+		}
+	}
+
+	/**
+	 * Sorts as many shuffled log messages as the dataset contains with the ArraySorting comparator
+	 */
+	private static class SortBenchmark implements Benchmark {
+		private ArrayList<LogMessage> messages;
+
+		public void setup(int users, int logs) {
+			Random random = new Random(42);
+			messages = new ArrayList<>(logs);
+			for(int i = 0; i < logs; i++) {
+				LogMessage message = new LogMessage();
+				message.setDate(1500000000000L + random.nextInt(Math.max(1, logs)) * 1000L);
+				messages.add(message);
+			}
+		}
+
+		public Object run() {
+			ArrayList<LogMessage> sorted = new ArrayList<>(messages);
+			Collections.sort(sorted, new ArraySorting());
+			return sorted;
+		}
+
+		public boolean needsMessageLog() {
+			return false;
+		}
+
+		public boolean dependsOnUsers() {
+			return false;
+		}
+	}
+}
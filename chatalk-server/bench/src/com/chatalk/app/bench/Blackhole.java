@@ -0,0 +1,16 @@
+package com.chatalk.app.bench;
+
+/**
+ * Consumes the results of the benchmarked operations so the JIT cannot remove them as dead code
+ */
+public class Blackhole {
+	private static volatile int sink;
+
+	/**
+	 * Consumes a result
+	 * @param result Result of an operation
+	 */
+	public static void consume(Object result) {
+		sink += System.identityHashCode(result);
+	}
+}
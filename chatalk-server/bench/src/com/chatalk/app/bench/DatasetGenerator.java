@@ -0,0 +1,91 @@
+package com.chatalk.app.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Generates a server working directory with a given number of users and log messages
+ * The data file is written in the format of the first versions of the server, logs included, so it exercises both the
+ * JSON file readers and the migration to the message log
+ * Records are written one by one, datasets much larger than the heap can be generated
+ *
+ * Usage: DatasetGenerator <directory> <users> <logs> <config template>
+ */
+public class DatasetGenerator {
+	/**
+	 * Date of the first generated message
+	 */
+	private static final long START_DATE = 1500000000000L;
+
+	public static void main(String[] args) throws Exception {
+		create(new File(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), new File(args[3]));
+	}
+
+	/**
+	 * Creates a server working directory
+	 * The same sizes always give the same dataset
+	 * @param directory Working directory, its resources directory is created
+	 * @param users Number of users
+	 * @param logs Number of log messages
+	 * @param configTemplate Config file copied in the working directory
+	 * @throws IOException if the dataset could not be written
+	 */
+	public static void create(File directory, int users, int logs, File configTemplate) throws IOException {
+		File resources = new File(directory, "resources");
+		resources.mkdirs();
+		Files.copy(configTemplate.toPath(), new File(resources, "config.json").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		generate(new File(resources, "data.json"), users, logs, new Random(42));
+	}
+
+	/**
+	 * Username of the generated user of a given index
+	 * @param index Index of the user
+	 * @return Username
+	 */
+	public static String username(int index) {
+		return String.format("user%06d", index);
+	}
+
+	/**
+	 * Writes the data file
+	 * Messages are 60% private, 30% server messages and 10% broadcasts, sent over one message per second
+	 */
+	private static void generate(File file, int users, int logs, Random random) throws IOException {
+		try(BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+			out.write("{\"logs\":[");
+			for(int i = 0; i < logs; i++) {
+				if(i > 0)
+					out.write(',');
+
+				int draw = random.nextInt(10);
+				int type = draw < 6 ? 1 : draw < 9 ? 0 : 2;
+				String author = type == 0 ? "server" : username(random.nextInt(users));
+				String recipient = type == 2 ? "server" : username(random.nextInt(users));
+				out.write("{\"author\":\"" + author + "\",\"recipient\":\"" + recipient + "\",\"type\":" + type
+						+ ",\"content\":\"Generated message number " + i + " for the benchmarks\",\"date\":" + (START_DATE + i * 1000L) + "}");
+			}
+
+			out.write("],\"users\":[");
+			for(int i = 0; i < users; i++) {
+				if(i > 0)
+					out.write(',');
+
+				out.write("{\"username\":\"" + username(i) + "\",\"password\":\"password\",\"status\":\"offline\",\"lastConnectionDate\":"
+						+ (START_DATE + random.nextInt(Math.max(1, logs)) * 1000L) + ",\"blocks\":[");
+				int blocks = random.nextInt(4);
+				for(int j = 0; j < blocks; j++) {
+					if(j > 0)
+						out.write(',');
+					out.write("{\"user\":\"" + username(random.nextInt(users)) + "\"}");
+				}
+				out.write("]}");
+			}
+			out.write("]}");
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.chatalk.app;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Sliding window of the users' recent activity
+ * A ring of per-minute buckets, each user being kept in the bucket of the minute of his latest activity
+ * Buckets older than the window are recycled as time goes by, so finding the users active during the last minutes
+ * only visits the buckets of the requested period and the users they contain
+ */
+public class ActivityWindow {
+	/**
+	 * Duration covered by a bucket in ms
+	 */
+	private static final long BUCKET_MILLIS = 60000;
+
+	/**
+	 * Users whose latest activity happened during the minute of the bucket
+	 */
+	private HashSet<String>[] buckets;
+
+	/**
+	 * Minute covered by each bucket, since the epoch
+	 */
+	private long[] bucketMinutes;
+
+	/**
+	 * Minute of the latest activity of each user kept in a bucket
+	 */
+	private HashMap<String, Long> lastActivity;
+
+
+	/**
+	 * @param maxWindowMinutes Longest period that can be requested, in minutes
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ActivityWindow(int maxWindowMinutes) {
+		int size = Math.max(1, maxWindowMinutes) + 1; //The current minute is only partially elapsed
+		buckets = new HashSet[size];
+		bucketMinutes = new long[size];
+		for(int i = 0; i < size; i++) {
+			buckets[i] = new HashSet<>();
+			bucketMinutes[i] = -1;
+		}
+		lastActivity = new HashMap<>();
+	}
+
+	/**
+	 * Returns the longest period that can be requested
+	 * @return Number of minutes
+	 */
+	public int getMaxWindowMinutes() {
+		return buckets.length - 1;
+	}
+
+	/**
+	 * Records an activity of a user
+	 * Older activities are ignored, a user's latest activity is all that is kept
+	 * @param username User's username
+	 * @param date Timestamp of the activity
+	 */
+	public synchronized void record(String username, long date) {
+		long minute = date / BUCKET_MILLIS;
+		Long previous = lastActivity.get(username);
+		if(previous != null && previous >= minute)
+			return;
+
+		int index = indexOf(minute);
+		if(bucketMinutes[index] > minute)
+			return; //Too old to be kept in the window
+
+		//Move the user out of the bucket of his previous activity
+		if(previous != null) {
+			int previousIndex = indexOf(previous);
+			if(bucketMinutes[previousIndex] == previous)
+				buckets[previousIndex].remove(username);
+		}
+
+		//Recycle the bucket of a minute that left the window
+		if(bucketMinutes[index] != minute) {
+			for(String user : buckets[index])
+				lastActivity.remove(user);
+			buckets[index].clear();
+			bucketMinutes[index] = minute;
+		}
+		buckets[index].add(username);
+		lastActivity.put(username, minute);
+	}
+
+	/**
+	 * Retrieves the users active during the last minutes
+	 * The period is rounded to whole minutes, the current minute included
+	 * Only the buckets of the period are visited, walking back from the current minute
+	 * @param minutes Length of the period, at most the maximum window
+	 * @param now Current timestamp
+	 * @return Set of usernames
+	 */
+	public synchronized HashSet<String> getActiveUsers(int minutes, long now) {
+		long currentMinute = now / BUCKET_MILLIS;
+		int count = Math.min(minutes, getMaxWindowMinutes()) + 1;
+
+		HashSet<String> usernames = new HashSet<>();
+		for(long minute = currentMinute; minute > currentMinute - count; minute--) {
+			int index = indexOf(minute);
+			if(bucketMinutes[index] == minute) //Buckets not recycled yet hold older minutes
+				usernames.addAll(buckets[index]);
+		}
+
+		return usernames;
+	}
+
+	private int indexOf(long minute) {
+		return (int) (minute % buckets.length);
+	}
+}
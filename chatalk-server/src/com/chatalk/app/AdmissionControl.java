@@ -0,0 +1,123 @@
+package com.chatalk.app;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * Decides whether a command is processed or rejected with rateLimited
+ * Each session has a token bucket per rate limited command, configured in the rateLimits config object,
+ * and the commands writing to the disk share a global number of permits, so a single chatty client cannot saturate the disk
+ */
+public class AdmissionControl {
+	/**
+	 * Commands that write to the message log or the data file
+	 */
+	private static final HashSet<String> WRITE_COMMANDS = new HashSet<>(Arrays.asList("reg", "message", "broadcast", "block", "ublock"));
+
+	/**
+	 * Admission control shared by all the sessions
+	 */
+	private static AdmissionControl instance;
+
+	/**
+	 * Number of commands rejected since the server started
+	 */
+	private static AtomicLong rejectedCommands = new AtomicLong();
+
+	/**
+	 * Burst and rate per second keyed by command name
+	 */
+	private HashMap<String, double[]> rateLimits;
+
+	/**
+	 * Permits of the write commands being processed
+	 */
+	private Semaphore writePermits;
+
+	/**
+	 * Time a write command waits for a permit before being rejected in ms
+	 * The wait happens on the thread processing the session's commands, never on a thread doing the network I/O
+	 */
+	private long writeTimeout;
+
+
+	private AdmissionControl(JSONObject config) {
+		rateLimits = new HashMap<>();
+		JSONObject limits = config.optJSONObject("rateLimits");
+		if(limits != null) {
+			for(String command : limits.keySet()) {
+				JSONObject limit = limits.getJSONObject(command);
+				rateLimits.put(command.toLowerCase(), new double[] {limit.getDouble("burst"), limit.getDouble("perSecond")});
+			}
+		}
+
+		writePermits = new Semaphore(config.optInt("maxConcurrentWrites", 32));
+		writeTimeout = config.optLong("writeAdmissionTimeoutMillis", 50);
+	}
+
+	/**
+	 * Returns the admission control, configured from the config file on first call
+	 * @return The admission control
+	 * @throws Exception if JSON file not found
+	 */
+	public static synchronized AdmissionControl getInstance() throws Exception {
+		if(instance == null)
+			instance = new AdmissionControl(Config.getConfig());
+
+		return instance;
+	}
+
+	/**
+	 * Returns the number of commands rejected since the server started
+	 * @return number of rejected commands
+	 */
+	public static long getRejectedCommands() {
+		return rejectedCommands.get();
+	}
+
+	/**
+	 * Creates the token bucket limiting a command for a session
+	 * @param command Command name
+	 * @return The bucket or null if the command is not rate limited
+	 */
+	public TokenBucket newBucket(String command) {
+		double[] limit = rateLimits.get(command);
+		return limit == null ? null : new TokenBucket(limit[0], limit[1]);
+	}
+
+	/**
+	 * Checks if a command can be processed
+	 * release() must be called once an admitted command has been processed
+	 * @param command Command name
+	 * @param bucket Session's bucket for the command, null if not rate limited
+	 * @return false if the command must be rejected
+	 * @throws InterruptedException if interrupted while waiting for a write permit
+	 */
+	public boolean admit(String command, TokenBucket bucket) throws InterruptedException {
+		if(bucket != null && !bucket.tryAcquire()) {
+			rejectedCommands.incrementAndGet();
+			return false;
+		}
+		if(WRITE_COMMANDS.contains(command) && !writePermits.tryAcquire(writeTimeout, TimeUnit.MILLISECONDS)) {
+			rejectedCommands.incrementAndGet();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Releases the permit of an admitted command
+	 * @param command Command name
+	 */
+	public void release(String command) {
+		if(WRITE_COMMANDS.contains(command))
+			writePermits.release();
+	}
+}
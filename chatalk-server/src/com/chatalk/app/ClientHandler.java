@@ -3,11 +3,24 @@ package com.chatalk.app;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.json.JSONObject;
+
+import com.chatalk.app.metrics.CommandMetrics;
+import com.chatalk.app.metrics.CountingInputStream;
+import com.chatalk.app.metrics.Metrics;
 import com.chatalk.app.models.LogMessage;
 import com.chatalk.app.models.LogMessageDAO;
 import com.chatalk.app.models.User;
 import com.chatalk.app.models.UserDAO;
+import com.chatalk.app.protocol.BinaryEncoder;
+import com.chatalk.app.protocol.OutboundQueue;
+import com.chatalk.app.protocol.ResponseStream;
+import com.chatalk.app.protocol.SharedFrame;
 
 import java.io.*;
 
@@ -16,6 +29,11 @@ import java.io.*;
  * Ran in a background thread to be able to handle multiple connections
  */
 public class ClientHandler implements Runnable {
+	/**
+	 * Number of connections currently open
+	 */
+	private static AtomicInteger connectedSessions = new AtomicInteger();
+	
 	/**
 	 * Socket used to communicate with the client
 	 */
@@ -38,8 +56,10 @@ public class ClientHandler implements Runnable {
 	
 	/**
 	 * Stream used to send outputs to the client
+	 * Outputs are serialized as Java objects unless the client negotiated the binary protocol
+	 * Outputs are queued and sent by a writer thread, the client is disconnected if it does not read them fast enough
 	 */
-	public ObjectOutputStream outToClient;
+	public ResponseStream outToClient;
 	
 	/**
 	 * User with whom the connection is established
@@ -59,9 +79,35 @@ public class ClientHandler implements Runnable {
 	
 	/**
 	 * Timestamp used to keep track of the user's last operation date
-	 * Used to logout automatically the user if he has been inactive for more than 15 min
+	 * Used to logout automatically the user if he has been inactive for longer than the idle timeout
+	 */
+	private volatile long lastOperation;
+	
+	/**
+	 * Minute of the last activity recorded in the server's activity window
+	 */
+	private long activityMinute = -1;
+	
+	/**
+	 * Set once the client has been logged out
+	 * The next line received from the client is its acknowledgement, after which the connection is closed
+	 */
+	private volatile boolean awaitingLogoutAcknowledgement;
+	
+	/**
+	 * Token buckets limiting the rate of the commands of the session, keyed by command name
+	 */
+	private HashMap<String, TokenBucket> rateLimiters = new HashMap<>();
+	
+	/**
+	 * Name of the command being processed, exceptions swallowed by its handler are counted against it
 	 */
-	private long lastOperation;
+	private String currentCommand;
+	
+	/**
+	 * Set once the connection has been closed
+	 */
+	private AtomicBoolean closed = new AtomicBoolean();
 	
 	
 	public ClientHandler(Socket connectionSocket) {
@@ -70,7 +116,21 @@ public class ClientHandler implements Runnable {
 		logMessageDAO = new LogMessageDAO();
 		user = new User();
 		lastOperation = new Date().getTime();
+		connectedSessions.incrementAndGet();
+		
+		//Responses to a command are written at once, no need to wait for the client's acknowledgements
+		try {
+			connectionSocket.setTcpNoDelay(true);
+		} catch(Exception e) {}
 	}	
+	
+	/**
+	 * Returns the number of connections currently open
+	 * @return number of connected sessions
+	 */
+	public static int getConnectedSessions() {
+		return connectedSessions.get();
+	}
 
 	/**
 	 * Method automatically executed when the thread is started
@@ -78,102 +138,208 @@ public class ClientHandler implements Runnable {
 	public void run() {
 		try {
 			//Get I/O Streams
-			inFromClient = new BufferedReader(new InputStreamReader(connectionSocket.getInputStream()));
-			outToClient = new ObjectOutputStream(connectionSocket.getOutputStream());
+			inFromClient = new BufferedReader(new InputStreamReader(new CountingInputStream(connectionSocket.getInputStream())));
+			openOutput(connectionSocket.getOutputStream());
 			
-			//Run a new thread that will check in background if user's last operation exceeds 15 min
-			Runnable task = new Runnable() {
-	            public void run() {
-	            	while(true) {
-		                if((new Date().getTime() - lastOperation) > 900000) {
-		                	try {
-			                	//Send back the command being processed so the client knows what kind of response to expect
-			            		outToClient.writeObject("logout");
-			            		outToClient.writeObject("loggedOut");
-			            		
-			            		if(user.getUsername() != null) {
-			            			user.setStatus("offline");
-			            			userDAO.update(user);
-			            		}
-			            		
-			            		inFromClient.readLine(); //Wait for client acknowledgement before closing connection
-			            		
-		            			//Close the connection
-		            			connectionSocket.close();
-		            			inFromClient.close();
-		            			outToClient.close();
-		            			
-		            			break;
-		                	} catch(Exception e) {}
-		                }
-	            	}
-	            }
-	        };
-	        new Thread(task).start();
+			startIdleMonitoring();
 			
-			while(true) {
+			while(!connectionSocket.isClosed()) {
 				//Get command from client
 				String command = inFromClient.readLine();
-				String[] commandSplit = command.split(" ");
-				
-				//Process request
-				if(commandSplit[0].equalsIgnoreCase("reg")) //Registration request
-					registrationRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("login")) //Login request
-					loginRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("message")) //Personal message sending request
-					sendPersonalMessageRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("broadcast")) //Broadcast message sending request
-					sendBroadcastMessageRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("whoseonline")) //Check online users request
-					checkOnlineUsersRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("wholasthr")) //Check online users during last hour request
-					checkLastHourOnlineUsersRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("block")) //Block user request
-					blockRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("ublock")) //Unblock user request
-					unblockRequest(command);
-				else if(commandSplit[0].equalsIgnoreCase("logout")) //Logout request
-					logoutRequest();
-				else //Invalid command
-					outToClient.writeObject("invalidCommand");
+				if(command == null) //Connection closed by the client
+					break;
 				
-				//Update last operation date
-				lastOperation = new Date().getTime();
+				handleCommand(command);
 			}
 		} catch(Exception e) {}
+		
+		try {
+			close();
+		} catch(Exception e) {}
 	}
 	
 	/**
-	 * Handles client registration request
-	 * @param command Command executed by the user
+	 * Opens the stream used to send outputs to the client
+	 * @param out Stream connected to the client
+	 * @throws Exception if stream could not be opened
+	 */
+	public void openOutput(OutputStream out) throws Exception {
+		JSONObject config = Config.getConfig();
+		outToClient = new ResponseStream(out, config.optInt("outboundQueueSize", 1024), config.optString("slowConsumerPolicy", OutboundQueue.DROP_OLDEST), () -> {
+			try {
+				close();
+			} catch(Exception e) {}
+		});
+	}
+	
+	/**
+	 * Starts tracking the user's inactivity
+	 * User is logged out automatically by the server's idle monitor if his last operation exceeds the idle timeout
 	 */
-	public void registrationRequest(String command) {
+	public void startIdleMonitoring() {
+		if(Server.idleMonitor != null)
+			Server.idleMonitor.register(this);
+	}
+	
+	/**
+	 * Logs out the user after a long inactivity
+	 * Called by the server's idle monitor once the user's last operation exceeds the idle timeout
+	 * @throws Exception if communication with the client failed
+	 */
+	public void idleTimeout() throws Exception {
+		//Send back the command being processed so the client knows what kind of response to expect
+		outToClient.send("logout", "loggedOut");
+		
+		if(user.getUsername() != null) {
+			Server.sessionRegistry.unbind(user.getUsername(), this);
+			user.setStatus("offline");
+			userDAO.update(user);
+		}
+		
+		awaitingLogoutAcknowledgement = true; //Connection is closed once the client acknowledges
+	}
+	
+	/**
+	 * Returns the date of the user's last operation
+	 * @return timestamp of the last operation
+	 */
+	public long getLastOperation() {
+		return lastOperation;
+	}
+	
+	/**
+	 * Checks if the connection with the client has been closed
+	 * @return true if the connection is closed
+	 */
+	public boolean isClosed() {
+		return closed.get();
+	}
+	
+	/**
+	 * Processes a command received from the client
+	 * @param command Command sent by the client
+	 * @throws Exception if communication with the client failed
+	 */
+	public void handleCommand(String command) throws Exception {
+		//Client acknowledged its logout, close the connection
+		if(awaitingLogoutAcknowledgement) {
+			close();
+			return;
+		}
+		
+		//Responses are sent at once when the command has been processed
+		outToClient.begin();
+		try {
+			dispatch(command);
+		} finally {
+			outToClient.commit();
+		}
+		
+		//Update last operation date
+		lastOperation = new Date().getTime();
+		if(user.getUsername() != null)
+			recordActivity(lastOperation);
+	}
+	
+	/**
+	 * Records the activity of the user in the server's activity window, at most once per minute
+	 * @param date Timestamp of the activity
+	 */
+	private void recordActivity(long date) {
+		long minute = date / 60000;
+		if(minute == activityMinute)
+			return;
+		activityMinute = minute;
+		Server.activityWindow.record(user.getUsername(), date);
+	}
+	
+	/**
+	 * Redirects a command to the method handling it
+	 * The command is looked up in the registry and its arguments are validated before its handler is called
+	 * @param command Command sent by the client
+	 * @throws Exception if communication with the client failed
+	 */
+	private void dispatch(String command) throws Exception {
+		long start = System.nanoTime();
+		int nameEnd = command.indexOf(' ');
+		if(nameEnd < 0)
+			nameEnd = command.length();
+		
+		CommandSpec spec = CommandRegistry.get(command.substring(0, nameEnd));
+		if(spec == null) { //Invalid command
+			outToClient.writeObject("invalidCommand");
+			return;
+		}
+		
+		CommandMetrics metrics = Metrics.getInstance().command(spec.getName());
+		AdmissionControl admission = AdmissionControl.getInstance();
+		if(!rateLimiters.containsKey(spec.getName()))
+			rateLimiters.put(spec.getName(), admission.newBucket(spec.getName()));
+		
+		currentCommand = spec.getName();
+		boolean admitted = false;
 		try {
 			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("reg");
-			
-			String[] commandSplit = command.split(" ");
+			outToClient.writeObject(spec.getName());
 			
-			//If command is not in the following format: reg <username> <password>
-			if(commandSplit.length != 3) 
+			String[] arguments = spec.parseArguments(command, nameEnd + 1);
+			if(arguments == null) //If command does not have the expected number of arguments
 				outToClient.writeObject("invalidCommand");
-			else if(this.user.getUsername() != null) 
-					outToClient.writeObject("userIsLoggedIn");
+			else if(spec.requiresLogin() && user.getUsername() == null) //If user is not logged in
+				outToClient.writeObject("notLoggedIn");
+			else if(!admission.admit(spec.getName(), rateLimiters.get(spec.getName()))) { //If the session sends the command too fast or too many writes are in progress
+				metrics.rejected();
+				outToClient.writeObject("rateLimited");
+			} else {
+				admitted = true;
+				spec.getHandler().handle(this, arguments);
+			}
+		} finally {
+			if(admitted)
+				admission.release(spec.getName());
+			currentCommand = null;
+			metrics.record(start);
+		}
+	}
+	
+	/**
+	 * Closes the connection with the client
+	 * @throws IOException if connection could not be closed
+	 */
+	public void close() throws IOException {
+		if(!closed.compareAndSet(false, true))
+			return;
+		connectedSessions.decrementAndGet();
+		
+		//User disconnected without logging out
+		if(Server.sessionRegistry.remove(this)) {
+			try {
+				user.setStatus("offline");
+				userDAO.update(user);
+			} catch(Exception e) {}
+		}
+		
+		connectionSocket.close();
+		if(inFromClient != null)
+			inFromClient.close();
+		if(outToClient != null)
+			outToClient.close();
+	}
+	
+	/**
+	 * Handles client registration request
+	 * @param arguments Username and password
+	 */
+	public void registrationRequest(String[] arguments) {
+		try {
+			if(this.user.getUsername() != null) 
+				outToClient.writeObject("userIsLoggedIn");
 			else {
-				String username = commandSplit[1];
-				String password = commandSplit[2];
+				String username = arguments[0];
+				String password = arguments[1];
 				
 				//Check if user with same username already exists
-				ArrayList<User> users = userDAO.getUsers();
-				boolean userFound = false;
-				for(User user : users) {
-					if(user.getUsername().equals(username)) {
-						userFound = true;
-						break;
-					}
-				}
-				if(userFound)
+				if(userDAO.getUser(username) != null)
 					outToClient.writeObject("usernameAlreadyExists");
 				else {
 					//Save user
@@ -192,128 +358,172 @@ public class ClientHandler implements Runnable {
 					}
 				}
 			}	
-		} catch(Exception e) {}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
 	}
 	
 	/**
 	 * Handles login request
-	 * @param command Command executed by the user
+	 * Clients keeping a cache of their logs send the date of the most recent message they have, only the messages sent after it are returned
+	 * @param arguments Username, password and optionally the date of the most recent message known by the client
 	 */
-	public void loginRequest(String command) {
+	public void loginRequest(String[] arguments) {
 		try {
-			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("login");
-			
-			String[] commandSplit = command.split(" ");
+			long since = 0;
+			if(arguments.length > 2) {
+				try {
+					since = Long.parseLong(arguments[2]);
+				} catch(NumberFormatException e) {}
+			}
 			
-			//If command is not in the following format: login <username> <password>
-			if(commandSplit.length != 3) 
+			//If user's access is restricted due to too many login attempts
+			if(loginAttempt > 3 && (new Date().getTime() - BLOCK_PERIOD) < 120000)
+				outToClient.writeObject("accessRestricted");
+			else if(arguments.length > 2 && since <= 0) //If date is not a positive number
 				outToClient.writeObject("invalidCommand");
-			else {
-				//If user's access is restricted due to too many login attempts
-				if(loginAttempt > 3 && (new Date().getTime() - BLOCK_PERIOD) < 120000)
-					outToClient.writeObject("accessRestricted");
-				else {	
-					//Reset login attempts
-					if(loginAttempt > 3)
-						loginAttempt = 1;
-					
-					String username = commandSplit[1];
-					String password = commandSplit[2];
-					
-					//Check if user with same credentials exists
-					ArrayList<User> users = userDAO.getUsers();
-					boolean userFound = false;
-					for(User user : users) {
-						if(user.getUsername().equals(username) && user.getPassword().equals(password)) {
-							if(user.getStatus().equals("online"))
-								outToClient.writeObject("userAlreadyLoggedIn");
-							else {
-								//Get user's logs
-								ArrayList<LogMessage> logs = logMessageDAO.getLogs(user);
-								outToClient.writeObject("loginSuccessful");
-								outToClient.writeObject(logs);
-								
-								userFound = true;
-								this.user = user; //Save user so he can be identified later for future commands
-								loginAttempt = 0;
-								
-								//Update user status
-								user.setStatus("online");
-								user.setLastConnectionDate(new Date().getTime());
-								userDAO.update(user);
-							}
-							
-							break;
+			else {	
+				//Reset login attempts
+				if(loginAttempt > 3)
+					loginAttempt = 1;
+				
+				String username = arguments[0];
+				String password = arguments[1];
+				
+				//Check if user with same credentials exists
+				User user = userDAO.getUser(username);
+				if(user != null && user.getPassword().equals(password)) {
+					//Presence is claimed first, so the same user cannot log in twice concurrently
+					if(!Server.sessionRegistry.bind(user.getUsername(), this))
+						outToClient.writeObject("userAlreadyLoggedIn");
+					else {
+						this.user = user; //Save user so he can be identified later for future commands
+						if(isClosed()) //Connection closed meanwhile, the session may have been removed before the user was saved
+							Server.sessionRegistry.remove(this);
+						loginAttempt = 0;
+						
+						//Get the messages the client does not have yet, cursor 0 tells it that none are missing before them
+						ArrayList<LogMessage> logs = null;
+						Long cursor = 0L;
+						if(since > 0)
+							logs = logMessageDAO.getLogsSince(user, since, Math.max(Config.getConfig().optInt("deltaSyncLimit", 1000), Config.getConfig().optInt("historyPageSize", 50)));
+						
+						//No date or too many messages since that date --> Get the most recent page of user's logs, older pages are requested with the history command
+						if(logs == null) {
+							logs = logMessageDAO.getLogs(user, Long.MAX_VALUE, Config.getConfig().optInt("historyPageSize", 50));
+							cursor = historyCursor(user, logs);
 						}
+						
+						outToClient.writeObject("loginSuccessful");
+						outToClient.writeObject(logs);
+						outToClient.writeObject(cursor);
+						
+						//Update user status
+						user.setStatus("online");
+						user.setLastConnectionDate(new Date().getTime());
+						userDAO.update(user);
+						activityMinute = -1;
+						recordActivity(user.getLastConnectionDate().getTime());
 					}
-					//If no user with provided credentials exist
-					if(!userFound) {
-						//Block user's access for 2 min at 3rd attempt
-						if(loginAttempt == 3)
-							BLOCK_PERIOD = new Date().getTime();
-						outToClient.writeObject("invalidCredentials");
-						loginAttempt++;
-					}
+				}
+				//If no user with provided credentials exist
+				else {
+					//Block user's access for 2 min at 3rd attempt
+					if(loginAttempt == 3)
+						BLOCK_PERIOD = new Date().getTime();
+					outToClient.writeObject("invalidCredentials");
+					loginAttempt++;
 				}
 			}
-		} catch(Exception e) {}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
 	}
 	
 	/**
-	 * Handles message sending request
-	 * @param command Command executed by the user
+	 * Handles older logs request
+	 * Responds with a page of logs sorted from most recent to oldest, followed by the cursor of the next page
+	 * @param arguments Timestamp before which logs are requested and number of logs
 	 */
-	public void sendPersonalMessageRequest(String command) {
+	public void historyRequest(String[] arguments) {
 		try {
-			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("message");
-			
-			String[] commandSplit = command.split(" ", 3);
+			long before = 0;
+			int limit = 0;
+			try {
+				before = Long.parseLong(arguments[0]);
+				limit = Integer.parseInt(arguments[1]);
+			} catch(NumberFormatException e) {}
 			
-			//If command is not in the following format: message <recipient> <message>
-			if(commandSplit.length != 3) 
+			//If arguments are not positive numbers
+			if(before <= 0 || limit <= 0)
 				outToClient.writeObject("invalidCommand");
-			else if(user.getUsername() == null) //If user is not logged in
-				outToClient.writeObject("notLoggedIn");
-			else if(commandSplit[1].equals(this.user.getUsername())) //If author = recipient
+			else {
+				//Bound the page size so a single request cannot stream the whole history
+				limit = Math.min(limit, Config.getConfig().optInt("historyMaxPageSize", 500));
+				
+				ArrayList<LogMessage> logs = logMessageDAO.getLogs(user, before, limit);
+				outToClient.writeObject(logs);
+				outToClient.writeObject(historyCursor(user, logs));
+			}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
+	}
+	
+	/**
+	 * Handles protocol negotiation request
+	 * The acknowledgement is the last output sent with the current protocol, every following output uses the negotiated one
+	 * Servers can keep every client on Java serialization by setting binaryProtocol to false
+	 * @param arguments Name of the protocol requested by the client
+	 */
+	public void protocolRequest(String[] arguments) {
+		try {
+			if(arguments[0].equalsIgnoreCase("binary") && Config.getConfig().optBoolean("binaryProtocol", true))
+				outToClient.switchEncoder("binary", BinaryEncoder.INSTANCE);
+			else
+				outToClient.writeObject("legacy");
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
+	}
+	
+	/**
+	 * Returns the cursor to be used to request the page following a page of logs
+	 * @param user User whose logs are paginated
+	 * @param logs Page of logs sorted from most recent to oldest
+	 * @return Date of the oldest message of the page, or 0 if there are no older logs
+	 * @throws Exception if message log could not be read
+	 */
+	private Long historyCursor(User user, ArrayList<LogMessage> logs) throws Exception {
+		if(logs.isEmpty())
+			return 0L;
+		
+		long oldest = logs.get(logs.size()-1).getTimestamp();
+		return logMessageDAO.hasLogsBefore(user, oldest) ? oldest : 0L;
+	}
+	
+	/**
+	 * Handles message sending request
+	 * @param arguments Recipient and message
+	 */
+	public void sendPersonalMessageRequest(String[] arguments) {
+		try {
+			if(arguments[0].equals(this.user.getUsername())) //If author = recipient
 				outToClient.writeObject("invalidRecipient");
 			else {
-				String recipient = commandSplit[1];
-				String message = commandSplit[2];
+				String recipient = arguments[0];
+				String message = arguments[1];
 				
-				//Check if recipient exists
-				ArrayList<User> users = userDAO.getUsers();
-				boolean userFound = false;
-				boolean authorIsBlocked = false;
-				for(User user : users) {
-					if(user.getUsername().equals(recipient)) {
-						//If recipient is found, check if he has blocked the message author
-						ArrayList<String> blocks = user.getBlocks();
-						for(String blockedUser : blocks) {
-							if(blockedUser.equals(this.user.getUsername())) {
-								authorIsBlocked = true;
-								break;
-							}
-						}
-						userFound = true;
-						break;
-					}
-				}
+				//Check if recipient exists and if he has blocked the message author
+				boolean userFound = userDAO.exists(recipient);
+				boolean authorIsBlocked = userFound && userDAO.isBlockedBy(this.user.getUsername(), recipient);
 				if(authorIsBlocked)
 					outToClient.writeObject("authorIsBlocked");
 				else if(!userFound)
 					outToClient.writeObject("recipientNotFound");
 				else {
 					//Check if author blocked recipient
-					boolean recipientIsBlocked = false;;
-					ArrayList<String> blocks = this.user.getBlocks();
-					for(String blockedUser : blocks) {
-						if(blockedUser.equals(recipient)) {
-							recipientIsBlocked = true;
-							break;
-						}
-					}
+					boolean recipientIsBlocked = userDAO.isBlocked(this.user.getUsername(), recipient);
 					if(recipientIsBlocked)
 						outToClient.writeObject("recipientIsBlocked");
 					else {
@@ -323,133 +533,127 @@ public class ClientHandler implements Runnable {
 						logMessage.setRecipient(recipient);
 						logMessage.setContent(message);
 						logMessage.setType(1);
-						logMessage.setDate(new Date().getTime());
 						
 						logMessageDAO.add(logMessage);
 						
 						outToClient.writeObject("messageSaved");
 						
 						//If client is online send him the message directly
-						for(ClientHandler client : Server.listClients) {
-							if(client.user.getUsername().equals(recipient)) {
-								client.outToClient.writeObject("messageReceived");
-								client.outToClient.writeObject(logMessage);
-							}
-						}
+						ClientHandler client = Server.sessionRegistry.get(recipient);
+						if(client != null)
+							client.outToClient.push(new SharedFrame("messageReceived", logMessage));
 					}
 				}
 			}
-		} catch(Exception e) {}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
 	}
 	
 	/**
 	 * Handles broadcast message sending request
-	 * @param command Command executed by the user
+	 * @param arguments Message
 	 */
-	public void sendBroadcastMessageRequest(String command) {
+	public void sendBroadcastMessageRequest(String[] arguments) {
 		try {
-			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("broadcast");
+			String message = arguments[0];
 			
-			String[] commandSplit = command.split(" ", 2);
+			//Save message in the logs
+			LogMessage logMessage = new LogMessage();
+			logMessage.setAuthor(user.getUsername());
+			logMessage.setRecipient("server");
+			logMessage.setContent(message);
+			logMessage.setType(2);
 			
-			//If command is not in the following format: broadcast <message>
-			if(commandSplit.length != 2) 
-				outToClient.writeObject("invalidCommand");
-			else if(user.getUsername() == null) //If user is not logged in
-				outToClient.writeObject("notLoggedIn");
-			else {
-				String message = commandSplit[1];
-				
-				//Save message in the logs
-				LogMessage logMessage = new LogMessage();
-				logMessage.setAuthor(user.getUsername());
-				logMessage.setRecipient("server");
-				logMessage.setContent(message);
-				logMessage.setType(2);
-				logMessage.setDate(new Date().getTime());
-				
-				logMessageDAO.add(logMessage);
-				
-				outToClient.writeObject("messageSaved");
-				
-				//Send the broadcast message to all online clients directly (Except author of the broadcast)
-				for(ClientHandler client : Server.listClients) {
-					if(!client.user.getUsername().equals(user.getUsername())) {
-						client.outToClient.writeObject("messageReceived");
-						client.outToClient.writeObject(logMessage);
-					}
-				}
+			logMessageDAO.add(logMessage);
+			
+			outToClient.writeObject("messageSaved");
+			
+			//Send the broadcast message to all logged in clients directly (Except author of the broadcast)
+			//Message is encoded once per protocol and only queued for each client
+			SharedFrame frame = new SharedFrame("messageReceived", logMessage);
+			for(ClientHandler client : Server.sessionRegistry.getLoggedInSessions()) {
+				if(client != this)
+					client.outToClient.push(frame);
 			}
-		} catch(Exception e) {}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
 	}
 	
 	/**
 	 * Handles online users checking request
-	 * @param command Command to be executed by the user
+	 * @param arguments Ignored
 	 */
-	public void checkOnlineUsersRequest(String command) {
+	public void checkOnlineUsersRequest(String[] arguments) {
 		try {
-			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("whoseonline");
-			
-			outToClient.writeObject(userDAO.getOnlineUsers());
-		} catch(Exception e) {}
+			outToClient.writeFrame(Server.sessionRegistry.getPresence().getOnlineUsers());
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
 	}
 	
 	/**
 	 * Handles online users during last hour checking request
-	 * @param command Command executed by the user
+	 * Returns the users active during the window and the users currently online
+	 * @param arguments Optional window, in minutes (15 or 15m) or hours (2h), last hour by default
 	 */
-	public void checkLastHourOnlineUsersRequest(String command) {
+	public void checkLastHourOnlineUsersRequest(String[] arguments) {
 		try {
-			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("wholasthr");
+			int minutes = 60;
+			if(arguments.length > 0)
+				minutes = parseWindow(arguments[0]);
 			
-			outToClient.writeObject(userDAO.getLastHourOnlineUsers());
-		} catch(Exception e) {}
+			if(minutes <= 0)
+				outToClient.writeObject("invalidCommand");
+			else {
+				TreeSet<String> usernames = new TreeSet<>(Server.activityWindow.getActiveUsers(minutes, new Date().getTime()));
+				usernames.addAll(Server.sessionRegistry.getPresence().getOnlineUsernames());
+				outToClient.writeObject(new ArrayList<>(usernames));
+			}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
+	}
+	
+	/**
+	 * Parses the window of a wholasthr command
+	 * @param window Number of minutes followed by m, or number of hours followed by h
+	 * @return Number of minutes or -1 if the window is invalid
+	 */
+	private static int parseWindow(String window) {
+		int factor = 1;
+		if(window.endsWith("h") || window.endsWith("H")) {
+			factor = 60;
+			window = window.substring(0, window.length()-1);
+		} else if(window.endsWith("m") || window.endsWith("M"))
+			window = window.substring(0, window.length()-1);
+		
+		try {
+			int value = Integer.parseInt(window);
+			return value > 0 && value <= Integer.MAX_VALUE / factor ? value * factor : -1;
+		} catch(NumberFormatException e) {
+			return -1;
+		}
 	}
 	
 	/**
 	 * Handles block request
-	 * @param command Command executed by the user
+	 * @param arguments User to be blocked
 	 */
-	public void blockRequest(String command) {
+	public void blockRequest(String[] arguments) {
 		try {
-			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("block");
-			
-			String[] commandSplit = command.split(" ", 2);
-			
-			//If command is not in the following format: block <user>
-			if(commandSplit.length != 2) 
-				outToClient.writeObject("invalidCommand");
-			else if(user.getUsername() == null) //If user is not logged in
-				outToClient.writeObject("notLoggedIn");
-			else if(user.getUsername().equals(commandSplit[1])) //If user is trying to block himself
-					outToClient.writeObject("invalidUser");
+			if(user.getUsername().equals(arguments[0])) //If user is trying to block himself
+				outToClient.writeObject("invalidUser");
 			else {
-				String userToBeBlocked = commandSplit[1];
+				String userToBeBlocked = arguments[0];
 				
 				//Check if user to be blocked exists
-				ArrayList<User> users = userDAO.getUsers();
-				boolean userFound = false;
-				for(User user : users) {
-					if(user.getUsername().equals(userToBeBlocked)) 
-						userFound = true;
-				}
-				if(userFound == false)
+				if(!userDAO.exists(userToBeBlocked))
 					outToClient.writeObject("userNotFound");
 				else {
 					//Check if user has already been blocked
-					ArrayList<String> blocks = new ArrayList<>();
-					blocks = user.getBlocks();
-					boolean userBlocked = false;
-					for(String blockedUser : blocks) {
-						if(blockedUser.equals(userToBeBlocked))
-							userBlocked = true;
-					}
-					if(userBlocked)
+					if(userDAO.isBlocked(user.getUsername(), userToBeBlocked))
 						outToClient.writeObject("userAlreadyBlocked");
 					else {
 						//Save message in the logs
@@ -458,10 +662,10 @@ public class ClientHandler implements Runnable {
 						logMessage.setRecipient(user.getUsername());
 						logMessage.setContent("User " + userToBeBlocked + " has been blocked.");
 						logMessage.setType(0);
-						logMessage.setDate(new Date().getTime());
 						logMessageDAO.add(logMessage);
 						
 						//Add blocked user to the user's list of blocked user
+						ArrayList<String> blocks = user.getBlocks();
 						blocks.add(userToBeBlocked);
 						user.setBlocks(blocks);
 						userDAO.update(user);
@@ -470,85 +674,56 @@ public class ClientHandler implements Runnable {
 					}
 				}
 			}
-		} catch(Exception e) {}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
 	}
 	
 	/**
 	 * Handles unblock request
-	 * @param command Command executed by the user
+	 * @param arguments User to be unblocked
 	 */
-	public void unblockRequest(String command) {
+	public void unblockRequest(String[] arguments) {
 		try {
-			//Send back the command being processed so the client knows what kind of response to expect
-			outToClient.writeObject("ublock");
+			String userToBeUnblocked = arguments[0];
 			
-			String[] commandSplit = command.split(" ", 2);
-			
-			//If command is not in the following format: ublock <user>
-			if(commandSplit.length != 2) 
-				outToClient.writeObject("invalidCommand");
-			else if(user.getUsername() == null) //If user is not logged in
-				outToClient.writeObject("notLoggedIn");
+			//Check if user is in blocked list
+			if(!userDAO.isBlocked(user.getUsername(), userToBeUnblocked))
+				outToClient.writeObject("userNotBlocked");
 			else {
-				String userToBeUnblocked = commandSplit[1];
+				//Save message in the logs
+				LogMessage logMessage = new LogMessage();
+				logMessage.setAuthor("server");
+				logMessage.setRecipient(user.getUsername());
+				logMessage.setContent("User " + userToBeUnblocked + " has been unblocked.");
+				logMessage.setType(0);
+				logMessageDAO.add(logMessage);
 				
-				//Check if user is in blocked list
-				ArrayList<String> blocks = new ArrayList<>();
-				blocks = user.getBlocks();
-				boolean userBlocked = false;
-				int i = 0;
-				for(String blockedUser : blocks) {
-					if(blockedUser.equals(userToBeUnblocked)) {
-						userBlocked = true;
-						break;
-					}
-					i++;
-				}
-				if(!userBlocked)
-					outToClient.writeObject("userNotBlocked");
-				else {
-					//Save message in the logs
-					LogMessage logMessage = new LogMessage();
-					logMessage.setAuthor("server");
-					logMessage.setRecipient(user.getUsername());
-					logMessage.setContent("User " + userToBeUnblocked + " has been unblocked.");
-					logMessage.setType(0);
-					logMessage.setDate(new Date().getTime());
-					logMessageDAO.add(logMessage);
-					
-					//Removes user from blocked list
-					blocks.remove(i);
-					user.setBlocks(blocks);
-					userDAO.update(user);
-					
-					outToClient.writeObject("userUnblocked");
-				}
+				//Removes user from blocked list
+				ArrayList<String> blocks = user.getBlocks();
+				blocks.remove(userToBeUnblocked);
+				user.setBlocks(blocks);
+				userDAO.update(user);
+				
+				outToClient.writeObject("userUnblocked");
 			}
-		} catch(Exception e) {}
+		} catch(Exception e) {
+			Metrics.getInstance().exceptionSwallowed(currentCommand);
+		}
 	}
 	
 	/**
 	 * Handles logout request
-	 * @throws Exception Command executed by the user
+	 * @param arguments Ignored
+	 * @throws Exception if communication with the client failed
 	 */
-	public void logoutRequest() throws Exception {
-		//Send back the command being processed so the client knows what kind of response to expect
-		outToClient.writeObject("logout");
+	public void logoutRequest(String[] arguments) throws Exception {
+		outToClient.writeObject("loggedOut");
 		
-		if(this.user.getUsername() == null)
-			outToClient.writeObject("notLoggedIn");
-		else {
-			outToClient.writeObject("loggedOut");
-			
-			user.setStatus("offline");
-			userDAO.update(user);
-			
-			inFromClient.readLine(); //Wait for client acknowledgement before closing connection
-			
-			//Close the connection
-			connectionSocket.close();
-			inFromClient.close();
-			outToClient.close();
-		}
+		Server.sessionRegistry.unbind(user.getUsername(), this);
+		user.setStatus("offline");
+		userDAO.update(user);
+		
+		awaitingLogoutAcknowledgement = true; //Wait for client acknowledgement before closing connection
 	}
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package com.chatalk.app;
+
+/**
+ * Processes a command once its arguments have been validated
+ */
+public interface CommandHandler {
+	/**
+	 * @param client Session the command was received on
+	 * @param arguments Command arguments, as many as declared by the command
+	 * @throws Exception if communication with the client failed
+	 */
+	void handle(ClientHandler client, String[] arguments) throws Exception;
+}
@@ -0,0 +1,44 @@
+package com.chatalk.app;
+
+import java.util.TreeMap;
+
+/**
+ * Commands understood by the server, keyed by name regardless of case
+ * New commands are plugged in by registering their declaration
+ */
+public class CommandRegistry {
+	private static volatile TreeMap<String, CommandSpec> commands = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		register(new CommandSpec("reg", 2, false, false, ClientHandler::registrationRequest)); //reg <username> <password>
+		register(new CommandSpec("login", 2, 3, false, false, ClientHandler::loginRequest)); //login <username> <password> [<since-timestamp>]
+		register(new CommandSpec("message", 2, true, true, ClientHandler::sendPersonalMessageRequest)); //message <recipient> <message>
+		register(new CommandSpec("broadcast", 1, true, true, ClientHandler::sendBroadcastMessageRequest)); //broadcast <message>
+		register(new CommandSpec("whoseonline", -1, false, false, ClientHandler::checkOnlineUsersRequest));
+		register(new CommandSpec("wholasthr", 0, 1, false, false, ClientHandler::checkLastHourOnlineUsersRequest)); //wholasthr [<window>]
+		register(new CommandSpec("block", 1, true, true, ClientHandler::blockRequest)); //block <user>
+		register(new CommandSpec("ublock", 1, true, true, ClientHandler::unblockRequest)); //ublock <user>
+		register(new CommandSpec("history", 2, false, true, ClientHandler::historyRequest)); //history <before-timestamp> <limit>
+		register(new CommandSpec("logout", -1, false, true, ClientHandler::logoutRequest));
+		register(new CommandSpec("protocol", 1, false, false, ClientHandler::protocolRequest)); //protocol <name>
+	}
+
+	/**
+	 * Adds a command, replacing the command having the same name
+	 * @param command Command declaration
+	 */
+	public static synchronized void register(CommandSpec command) {
+		TreeMap<String, CommandSpec> updated = new TreeMap<>(commands);
+		updated.put(command.getName(), command);
+		commands = updated; //Lookups never see a map being modified
+	}
+
+	/**
+	 * Returns the declaration of a command
+	 * @param name Command name, in any case
+	 * @return The declaration or null if the command does not exist
+	 */
+	public static CommandSpec get(String name) {
+		return commands.get(name);
+	}
+}
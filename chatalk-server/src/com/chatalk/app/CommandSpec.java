@@ -0,0 +1,118 @@
+package com.chatalk.app;
+
+import java.util.Arrays;
+
+/**
+ * Declaration of a command understood by the server
+ * The arguments are extracted and validated in a single pass over the command line before the handler is called
+ */
+public class CommandSpec {
+	private static final String[] NO_ARGUMENTS = new String[0];
+
+	/**
+	 * Command name, sent back to the client before the responses
+	 */
+	private String name;
+
+	/**
+	 * Number of arguments, -1 if the arguments are ignored
+	 */
+	private int arity;
+
+	/**
+	 * Number of arguments that must be present, the following ones are optional
+	 */
+	private int requiredArity;
+
+	/**
+	 * Whether the last argument is the rest of the line, spaces included
+	 */
+	private boolean greedy;
+
+	/**
+	 * Whether the user must be logged in
+	 */
+	private boolean requiresLogin;
+
+	private CommandHandler handler;
+
+
+	/**
+	 * @param name Command name
+	 * @param arity Number of arguments, -1 if the arguments are ignored
+	 * @param greedy Whether the last argument is the rest of the line, spaces included
+	 * @param requiresLogin Whether the user must be logged in
+	 * @param handler Handler processing the command
+	 */
+	public CommandSpec(String name, int arity, boolean greedy, boolean requiresLogin, CommandHandler handler) {
+		this(name, arity, arity, greedy, requiresLogin, handler);
+	}
+
+	/**
+	 * @param name Command name
+	 * @param requiredArity Number of arguments that must be present
+	 * @param arity Maximum number of arguments, the ones after the required ones are optional
+	 * @param greedy Whether the last argument is the rest of the line, spaces included
+	 * @param requiresLogin Whether the user must be logged in
+	 * @param handler Handler processing the command
+	 */
+	public CommandSpec(String name, int requiredArity, int arity, boolean greedy, boolean requiresLogin, CommandHandler handler) {
+		this.name = name;
+		this.requiredArity = requiredArity;
+		this.arity = arity;
+		this.greedy = greedy;
+		this.requiresLogin = requiresLogin;
+		this.handler = handler;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean requiresLogin() {
+		return requiresLogin;
+	}
+
+	public CommandHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Extracts the arguments of a command line
+	 * Arguments are separated by single spaces, trailing spaces are ignored unless they belong to a greedy argument
+	 * @param line Command line
+	 * @param start Index of the first argument in the line
+	 * @return The arguments present or null if the line does not contain the number of arguments of the command
+	 */
+	public String[] parseArguments(String line, int start) {
+		if(arity < 0)
+			return NO_ARGUMENTS;
+
+		int end = line.length();
+		if(!greedy) {
+			while(end > 0 && line.charAt(end-1) == ' ')
+				end--;
+		}
+		if(start > end || (start == end && !greedy))
+			return requiredArity == 0 ? NO_ARGUMENTS : null;
+
+		String[] arguments = new String[arity];
+		int count = 0;
+		int position = start;
+		while(true) {
+			int next = line.indexOf(' ', position);
+			if(next < 0 || next >= end || (greedy && count == arity - 1))
+				next = end;
+			if(count == arity)
+				return null; //Too many arguments
+			arguments[count++] = line.substring(position, next);
+			if(next == end)
+				break;
+			position = next + 1;
+		}
+
+		if(count < requiredArity)
+			return null;
+		return count == arity ? arguments : Arrays.copyOf(arguments, count);
+	}
+}
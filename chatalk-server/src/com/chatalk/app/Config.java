@@ -2,17 +2,42 @@ package com.chatalk.app;
 
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import com.chatalk.app.util.SnapshotWriter;
+
 /**
  * Config class containing some useful methods
  * Static methods can be called without instanciating the class
  */
 public class Config {
+	/**
+	 * Config data, read once
+	 * @see Config#getConfig()
+	 */
+	private static JSONObject config;
+	
+	/**
+	 * Writers of the JSON files, created on first write
+	 */
+	private static SnapshotWriter configFileWriter;
+	private static SnapshotWriter dataFileWriter;
+	
+	/**
+	 * Returns the config data, the JSON config file is only read on first call
+	 * @return Config data
+	 * @throws FileNotFoundException if JSON file not found
+	 */
+	public static synchronized JSONObject getConfig() throws FileNotFoundException {
+		if(config == null)
+			config = parseConfigFile();
+		
+		return config;
+	}
+	
 	/**
 	 * Reads JSON config file
 	 * @return Config data
@@ -31,9 +56,11 @@ public class Config {
 	 * @throws IOException if JSON file could not be updated
 	 */
 	public static void updateConfigFile(JSONObject data) throws IOException {
-		FileWriter file = new FileWriter("resources/config.json");
-		file.write(data.toString());
-		file.close();
+		synchronized(Config.class) {
+			if(configFileWriter == null)
+				configFileWriter = new SnapshotWriter("resources/config.json", isSnapshotFsync());
+		}
+		configFileWriter.write(data);
 	}
 	
 	/**
@@ -50,12 +77,45 @@ public class Config {
 	
 	/**
 	 * Updates JSON data file
+	 * The file is replaced atomically, a crash during the update leaves the previous version
 	 * @param data Data updated
 	 * @throws IOException if JSON file could not be updated
 	 */
 	public static void updateDataFile(JSONObject data) throws IOException {
-		FileWriter file = new FileWriter("resources/data.json");
-		file.write(data.toString());
-		file.close();
+		getDataFileWriter().write(data);
+	}
+	
+	/**
+	 * Updates a member of the JSON data file, the other members are kept
+	 * The file is replaced atomically, a crash during the update leaves the previous version
+	 * @param name Member name
+	 * @param value Member value
+	 * @throws IOException if JSON file could not be updated
+	 */
+	public static void updateDataFile(String name, Object value) throws IOException {
+		getDataFileWriter().update(name, value);
+	}
+	
+	/**
+	 * Returns the writer of the JSON data file, which also keeps the snapshot metrics
+	 * @return Data file writer
+	 */
+	public static synchronized SnapshotWriter getDataFileWriter() {
+		if(dataFileWriter == null)
+			dataFileWriter = new SnapshotWriter("resources/data.json", isSnapshotFsync());
+		
+		return dataFileWriter;
+	}
+	
+	/**
+	 * Checks if snapshots of the JSON files must be forced to the disk
+	 * @return snapshotFsync config value, false if the config file could not be read
+	 */
+	private static boolean isSnapshotFsync() {
+		try {
+			return getConfig().optBoolean("snapshotFsync", false);
+		} catch(FileNotFoundException e) {
+			return false;
+		}
 	}
 }
@@ -0,0 +1,176 @@
+package com.chatalk.app;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timer wheel logging out the sessions that have been inactive for too long
+ * A single thread ticks over the wheel for all the sessions
+ * Sessions only record the date of their last operation, so resetting a deadline is O(1):
+ * when the slot of a session comes up, its deadline is recomputed and the session is moved further if it has been active since
+ */
+public class IdleMonitor implements Runnable {
+	/**
+	 * Number of slots of the wheel
+	 */
+	private static final int WHEEL_SIZE = 512;
+
+	/**
+	 * Time a logged out client is given to acknowledge before its connection is closed anyway
+	 */
+	private static final long ACKNOWLEDGEMENT_TIMEOUT = 30000;
+
+	/**
+	 * Duration of a wheel tick in ms
+	 */
+	private long tickDuration;
+
+	/**
+	 * Inactivity period after which a session is logged out in ms
+	 */
+	private long idleTimeout;
+
+	/**
+	 * Sessions whose deadline falls in each slot
+	 */
+	private ConcurrentLinkedQueue<Entry>[] wheel;
+
+	/**
+	 * Last tick processed by the wheel thread
+	 */
+	private volatile long lastTick;
+
+	/**
+	 * Number of sessions logged out because of their inactivity
+	 */
+	private AtomicLong expiredSessions = new AtomicLong();
+
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public IdleMonitor(long idleTimeout, long tickDuration) {
+		this.idleTimeout = idleTimeout;
+		this.tickDuration = Math.max(1, tickDuration);
+		wheel = new ConcurrentLinkedQueue[WHEEL_SIZE];
+		for(int i = 0; i < WHEEL_SIZE; i++)
+			wheel[i] = new ConcurrentLinkedQueue<>();
+		lastTick = new Date().getTime() / this.tickDuration;
+	}
+
+	/**
+	 * Starts ticking over the wheel in background
+	 */
+	public void start() {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "idle-monitor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(this, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts tracking the inactivity of a session
+	 * @param client Session to be tracked
+	 */
+	public void register(ClientHandler client) {
+		schedule(new Entry(client), client.getLastOperation() + idleTimeout);
+	}
+
+	/**
+	 * Returns the number of sessions logged out because of their inactivity
+	 * @return number of expired sessions
+	 */
+	public long getExpiredSessions() {
+		return expiredSessions.get();
+	}
+
+	/**
+	 * Processes the slots of all the ticks elapsed since the last execution
+	 */
+	public void run() {
+		long now = new Date().getTime();
+		long currentTick = now / tickDuration;
+
+		while(lastTick < currentTick) {
+			lastTick++;
+			ConcurrentLinkedQueue<Entry> slot = wheel[(int) (lastTick % WHEEL_SIZE)];
+
+			//Only process the entries present at the beginning, rescheduled ones may land in the same slot
+			int size = slot.size();
+			for(int i = 0; i < size; i++) {
+				Entry entry = slot.poll();
+				if(entry == null)
+					break;
+				try {
+					process(entry, now);
+				} catch(Exception e) {}
+			}
+		}
+	}
+
+	/**
+	 * Logs out a session whose deadline passed or reschedules it
+	 * @param entry Session entry
+	 * @param now Current timestamp
+	 * @throws Exception if communication with the client failed
+	 */
+	private void process(Entry entry, long now) throws Exception {
+		ClientHandler client = entry.client;
+		if(client.isClosed())
+			return;
+
+		//Session already logged out, close the connection if the client never acknowledged it
+		if(entry.expiredAt > 0) {
+			if(now - entry.expiredAt >= ACKNOWLEDGEMENT_TIMEOUT)
+				client.close();
+			else
+				schedule(entry, entry.expiredAt + ACKNOWLEDGEMENT_TIMEOUT);
+			return;
+		}
+
+		long deadline = client.getLastOperation() + idleTimeout;
+		if(deadline > now) {
+			schedule(entry, deadline); //Session has been active since it was scheduled
+			return;
+		}
+
+		expiredSessions.incrementAndGet();
+		entry.expiredAt = now;
+		schedule(entry, now + ACKNOWLEDGEMENT_TIMEOUT);
+		client.idleTimeout();
+	}
+
+	/**
+	 * Puts an entry in the slot of its deadline
+	 * Deadlines more than one revolution away are simply checked again on the next revolution
+	 * @param entry Session entry
+	 * @param deadline Timestamp at which the entry should be checked
+	 */
+	private void schedule(Entry entry, long deadline) {
+		long tick = Math.max(deadline / tickDuration, lastTick + 1);
+		wheel[(int) (tick % WHEEL_SIZE)].add(entry);
+	}
+
+	/**
+	 * Session tracked by the wheel
+	 */
+	private static class Entry {
+		private ClientHandler client;
+
+		/**
+		 * Date at which the session was logged out, 0 while still active
+		 */
+		private long expiredAt;
+
+		private Entry(ClientHandler client) {
+			this.client = client;
+		}
+	}
+}
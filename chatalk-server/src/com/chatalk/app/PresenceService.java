@@ -0,0 +1,99 @@
+package com.chatalk.app;
+
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import com.chatalk.app.protocol.SharedFrame;
+
+/**
+ * Users currently online, derived from the logged in sessions
+ * Kept in memory by the session registry, so presence never depends on the status saved in the data file
+ * The online users are kept sorted, every change increments the version of the set
+ * The list sent to clients is encoded once per version and reused until the set changes
+ */
+public class PresenceService {
+	/**
+	 * Usernames of the online users, sorted
+	 */
+	private TreeSet<String> online = new TreeSet<>();
+
+	/**
+	 * Incremented every time a user comes online or goes offline
+	 */
+	private long version;
+
+	/**
+	 * List of online users as sent to clients, null until requested
+	 */
+	private SharedFrame snapshot;
+
+	/**
+	 * Version of the set the snapshot was taken from
+	 */
+	private long snapshotVersion = -1;
+
+
+	/**
+	 * Marks a user online
+	 * @param username User's username
+	 */
+	synchronized void userOnline(String username) {
+		if(online.add(username))
+			version++;
+	}
+
+	/**
+	 * Marks a user offline
+	 * @param username User's username
+	 */
+	synchronized void userOffline(String username) {
+		if(online.remove(username))
+			version++;
+	}
+
+	/**
+	 * Checks if a user is online
+	 * @param username User's username
+	 * @return true if the user is logged in with a session
+	 */
+	public synchronized boolean isOnline(String username) {
+		return online.contains(username);
+	}
+
+	/**
+	 * Retrieves the usernames of the online users
+	 * @return Arraylist of usernames sorted alphabetically
+	 */
+	public synchronized ArrayList<String> getOnlineUsernames() {
+		return new ArrayList<>(online);
+	}
+
+	/**
+	 * Returns the list of online users ready to be sent to a client
+	 * @return ArrayList of usernames sorted alphabetically, shared by every request made until the set changes
+	 */
+	public synchronized SharedFrame getOnlineUsers() {
+		if(snapshotVersion != version) {
+			snapshot = new SharedFrame(new ArrayList<>(online));
+			snapshotVersion = version;
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Returns the number of online users
+	 * @return number of online users
+	 */
+	public synchronized int getOnlineCount() {
+		return online.size();
+	}
+
+	/**
+	 * Returns the version of the set of online users
+	 * @return version, incremented on every change
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+}
@@ -1,18 +1,69 @@
 package com.chatalk.app;
 
 import java.net.*;
-import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 import org.json.JSONObject;
 
+import com.chatalk.app.metrics.Metrics;
+import com.chatalk.app.metrics.MetricsEndpoint;
+import com.chatalk.app.models.MessageIndex;
+import com.chatalk.app.models.User;
+import com.chatalk.app.models.UserStore;
+import com.chatalk.app.nio.NioServer;
+
 public class Server {
-	public static ArrayList<ClientHandler> listClients = new ArrayList<>();
+	/**
+	 * Sessions currently connected, keyed by username once logged in
+	 */
+	public static SessionRegistry sessionRegistry = new SessionRegistry();
+	
+	/**
+	 * Timer wheel logging out the inactive sessions
+	 */
+	public static IdleMonitor idleMonitor;
+	
+	/**
+	 * Recent activity of the users, used to find who was online during the last minutes
+	 */
+	public static ActivityWindow activityWindow;
 	
 	public static void main(String[] args) throws Exception {
 		//Load server configurations
 		JSONObject config = Config.parseConfigFile();
 		int port = config.getInt("port");
 		
+		//Load the users in memory, recover the message log and index it
+		UserStore.getInstance();
+		MessageIndex.getInstance();
+		
+		//Start the activity window with the users that logged in recently
+		activityWindow = new ActivityWindow(config.optInt("activityWindowMaxMinutes", 1440));
+		for(User user : UserStore.getInstance().getUsers())
+			activityWindow.record(user.getUsername(), user.getLastConnectionDate().getTime());
+		
+		//Log out the users that have been inactive for too long (15 min by default)
+		idleMonitor = new IdleMonitor(config.optLong("idleTimeoutSeconds", 900) * 1000, 1000);
+		idleMonitor.start();
+		
+		//Expose the metrics through JMX and, if a port is configured, through the local plain-text endpoint
+		Metrics.getInstance().registerMBeans();
+		if(config.optInt("metricsPort", 0) > 0)
+			new MetricsEndpoint().start(config.getInt("metricsPort"));
+		
+		//Executor used to run the sessions (platform threads, bounded pool or virtual threads)
+		Executor sessionExecutor = SessionExecutors.create(config);
+		
+		//Selector based transport: connections are multiplexed over a small pool of event loop threads, commands are processed by the session executor
+		if(config.optString("transport", "blocking").equalsIgnoreCase("nio")) {
+			new ServerStats("nio/" + SessionExecutors.getStrategy()).start(config.optInt("statsIntervalSeconds", 0));
+			new NioServer(port, config.optInt("eventLoopThreads", 2), sessionExecutor).run();
+			return;
+		}
+		
+		//Report the resources used by the sessions
+		new ServerStats(SessionExecutors.getStrategy()).start(config.optInt("statsIntervalSeconds", 0));
+		
 		ServerSocket welcomeSocket = new ServerSocket(port);
 		Socket connectionSocket;
 
@@ -20,10 +71,10 @@ public class Server {
 			// Wait for contact
 			connectionSocket = welcomeSocket.accept();
 			
-			//Establish connection with server in a new thread
+			//Establish connection with server in the background
 			ClientHandler client = new ClientHandler(connectionSocket);
-			listClients.add(client);
-			new Thread(client).start();
+			sessionRegistry.add(client);
+			sessionExecutor.execute(client);
 		}
 	}
 }
\ No newline at end of file
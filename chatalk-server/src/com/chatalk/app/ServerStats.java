@@ -0,0 +1,85 @@
+package com.chatalk.app;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.chatalk.app.protocol.OutboundQueue;
+import com.chatalk.app.util.SnapshotWriter;
+
+/**
+ * Periodically reports the resources used by the connected sessions
+ * Used to compare the session executor strategies with each other
+ */
+public class ServerStats implements Runnable {
+	/**
+	 * Name of the strategy used to run the sessions
+	 */
+	private String executionMode;
+
+	/**
+	 * Heap used before any session was connected
+	 */
+	private long baselineHeap;
+
+	private ThreadMXBean threads;
+
+	private MemoryMXBean memory;
+
+
+	public ServerStats(String executionMode) {
+		this.executionMode = executionMode;
+		threads = ManagementFactory.getThreadMXBean();
+		memory = ManagementFactory.getMemoryMXBean();
+		baselineHeap = memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Starts reporting in background
+	 * @param intervalSeconds Number of seconds between two reports, reporting is disabled if <= 0
+	 */
+	public void start(int intervalSeconds) {
+		if(intervalSeconds <= 0)
+			return;
+
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "server-stats");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(this, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Prints a report line
+	 * Virtual threads are not included in the thread count reported by the JVM
+	 */
+	public void run() {
+		int sessions = ClientHandler.getConnectedSessions();
+		long heapUsed = memory.getHeapMemoryUsage().getUsed();
+		long heapPerSession = sessions > 0 ? Math.max(0, heapUsed - baselineHeap) / sessions : 0;
+		SnapshotWriter dataFile = Config.getDataFileWriter();
+
+		System.out.println("[stats] executor=" + executionMode
+				+ " sessions=" + sessions
+				+ " loggedIn=" + Server.sessionRegistry.getLoggedInCount()
+				+ " anonymous=" + Server.sessionRegistry.getAnonymousCount()
+				+ " threads=" + threads.getThreadCount()
+				+ " heapUsed=" + (heapUsed / 1024) + "KB"
+				+ " heapPerSession=" + (heapPerSession / 1024) + "KB"
+				+ " expiredSessions=" + (Server.idleMonitor != null ? Server.idleMonitor.getExpiredSessions() : 0)
+				+ " droppedOutputs=" + OutboundQueue.getDroppedOutputs()
+				+ " slowConsumersDisconnected=" + OutboundQueue.getSlowConsumersDisconnected()
+				+ " rateLimited=" + AdmissionControl.getRejectedCommands()
+				+ " snapshots=" + dataFile.getSnapshotsWritten()
+				+ " snapshotsSkipped=" + dataFile.getSnapshotsSkipped()
+				+ " lastSnapshot=" + dataFile.getLastDurationMillis() + "ms/" + (dataFile.getLastSizeBytes() / 1024) + "KB"
+				+ " maxSnapshot=" + dataFile.getMaxDurationMillis() + "ms");
+	}
+}
@@ -0,0 +1,69 @@
+package com.chatalk.app;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
+
+/**
+ * Factory of the executors used to run the client sessions
+ * The strategy is selected with the "sessionExecutor" key of the config file:
+ * platform -> One new platform thread per session
+ * pool -> Bounded pool of "sessionPoolSize" platform threads, extra sessions wait for a free thread
+ * virtual -> One virtual thread per session (Requires Java 21, falls back to platform otherwise)
+ */
+public class SessionExecutors {
+	/**
+	 * Name of the strategy actually in use
+	 */
+	private static String strategy = "platform";
+
+	/**
+	 * Creates the executor selected in the config file
+	 * @param config Server configurations
+	 * @return Executor used to launch the sessions
+	 */
+	public static Executor create(JSONObject config) {
+		String requested = config.optString("sessionExecutor", "platform");
+
+		if(requested.equalsIgnoreCase("pool")) {
+			strategy = "pool";
+			return Executors.newFixedThreadPool(config.optInt("sessionPoolSize", 256));
+		} else if(requested.equalsIgnoreCase("virtual")) {
+			Executor executor = newVirtualThreadPerTaskExecutor();
+			if(executor != null) {
+				strategy = "virtual";
+				return executor;
+			}
+			System.out.println("Virtual threads are not supported by this JVM, falling back to platform threads");
+		}
+
+		strategy = "platform";
+		return new Executor() {
+			public void execute(Runnable task) {
+				new Thread(task).start();
+			}
+		};
+	}
+
+	/**
+	 * Returns the name of the strategy in use
+	 * @return platform, pool or virtual
+	 */
+	public static String getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Creates a virtual thread per task executor
+	 * Looked up by reflection so the server still compiles and runs on older JVMs
+	 * @return The executor or null if virtual threads are not available
+	 */
+	private static Executor newVirtualThreadPerTaskExecutor() {
+		try {
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.chatalk.app;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the sessions currently connected to the server
+ * Logged in sessions are keyed by username so a recipient is found in constant time,
+ * sessions that have not logged in yet are tracked separately
+ * Sessions are removed when they log out, when they time out and when their connection is closed
+ * Logging in and out also updates the presence of the user, a user can only be logged in with one session at a time
+ */
+public class SessionRegistry {
+	/**
+	 * Logged in sessions keyed by username
+	 */
+	private ConcurrentHashMap<String, ClientHandler> users = new ConcurrentHashMap<>();
+
+	/**
+	 * Sessions not logged in
+	 */
+	private Set<ClientHandler> anonymous = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Online users, updated along with the logged in sessions
+	 */
+	private PresenceService presence = new PresenceService();
+
+
+	/**
+	 * Tracks a new connection
+	 * @param client Session of the connection
+	 */
+	public void add(ClientHandler client) {
+		anonymous.add(client);
+	}
+
+	/**
+	 * Associates a session with the user who logged in with it
+	 * @param username User's username
+	 * @param client Session the user logged in with
+	 * @return false if the user is already logged in with another session
+	 */
+	public boolean bind(String username, ClientHandler client) {
+		synchronized(presence) {
+			if(users.putIfAbsent(username, client) != null)
+				return false;
+			presence.userOnline(username);
+		}
+		anonymous.remove(client);
+		return true;
+	}
+
+	/**
+	 * Dissociates a session from its user once logged out
+	 * The session stays tracked as anonymous until its connection is closed
+	 * @param username User's username
+	 * @param client Session the user logged out from
+	 */
+	public void unbind(String username, ClientHandler client) {
+		if(username != null && release(username, client)) {
+			anonymous.add(client);
+			if(client.isClosed()) //Connection closed meanwhile, remove() may already have run
+				anonymous.remove(client);
+		}
+	}
+
+	/**
+	 * Stops tracking a session whose connection is closed
+	 * @param client Closed session
+	 * @return true if a user was still logged in with the session
+	 */
+	public boolean remove(ClientHandler client) {
+		anonymous.remove(client);
+		return client.user != null && client.user.getUsername() != null && release(client.user.getUsername(), client);
+	}
+
+	/**
+	 * Returns the online users
+	 * @return Presence service
+	 */
+	public PresenceService getPresence() {
+		return presence;
+	}
+
+	/**
+	 * Returns the session a user is logged in with
+	 * @param username User's username
+	 * @return The session or null if the user is not logged in
+	 */
+	public ClientHandler get(String username) {
+		return users.get(username);
+	}
+
+	/**
+	 * Returns the logged in sessions
+	 * The collection reflects the sessions logging in and out while it is iterated
+	 * @return Logged in sessions
+	 */
+	public Collection<ClientHandler> getLoggedInSessions() {
+		return users.values();
+	}
+
+	/**
+	 * Returns the number of logged in sessions
+	 * @return number of logged in sessions
+	 */
+	public int getLoggedInCount() {
+		return users.size();
+	}
+
+	/**
+	 * Returns the number of sessions not logged in
+	 * @return number of anonymous sessions
+	 */
+	public int getAnonymousCount() {
+		return anonymous.size();
+	}
+
+	/**
+	 * Removes the association between a user and a session, if still present
+	 * @return true if the session was associated with the user
+	 */
+	private boolean release(String username, ClientHandler client) {
+		synchronized(presence) {
+			if(!users.remove(username, client))
+				return false;
+			presence.userOffline(username);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.chatalk.app;
+
+/**
+ * Token bucket limiting the rate of a command
+ * Holds up to a burst of tokens, refilled continuously at a fixed rate, each command consumes one token
+ * Owned by a single session, whose commands are processed one at a time
+ */
+public class TokenBucket {
+	/**
+	 * Maximum number of tokens
+	 */
+	private double capacity;
+
+	/**
+	 * Tokens added per nanosecond
+	 */
+	private double refillRate;
+
+	private double tokens;
+
+	/**
+	 * Time of the last refill in ns
+	 */
+	private long lastRefill;
+
+
+	/**
+	 * @param capacity Number of commands that can be sent at once
+	 * @param perSecond Number of commands allowed per second once the burst is consumed
+	 */
+	public TokenBucket(double capacity, double perSecond) {
+		this.capacity = capacity;
+		this.refillRate = perSecond / 1000000000.0;
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Consumes a token if one is available
+	 * @return false if the rate is exceeded
+	 */
+	public boolean tryAcquire() {
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate);
+		lastRefill = now;
+
+		if(tokens < 1)
+			return false;
+		tokens--;
+		return true;
+	}
+}
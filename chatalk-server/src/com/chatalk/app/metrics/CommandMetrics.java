@@ -0,0 +1,72 @@
+package com.chatalk.app.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.chatalk.app.util.LatencyHistogram;
+
+/**
+ * Latency histogram and counters of a command
+ */
+public class CommandMetrics implements CommandMetricsMBean {
+	/**
+	 * Latencies in microseconds
+	 */
+	private LatencyHistogram latencies = new LatencyHistogram();
+
+	private LongAdder errors = new LongAdder();
+
+	private LongAdder rejected = new LongAdder();
+
+
+	/**
+	 * Records the processing of the command
+	 * @param startNanos Value of System.nanoTime() when the command was received
+	 */
+	public void record(long startNanos) {
+		latencies.record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	public void error() {
+		errors.increment();
+	}
+
+	public void rejected() {
+		rejected.increment();
+	}
+
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	public long getCount() {
+		return latencies.getCount();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public double getMeanMicros() {
+		return latencies.getMean();
+	}
+
+	public long getP50Micros() {
+		return latencies.getValueAtPercentile(50);
+	}
+
+	public long getP99Micros() {
+		return latencies.getValueAtPercentile(99);
+	}
+
+	public long getP999Micros() {
+		return latencies.getValueAtPercentile(99.9);
+	}
+
+	public long getMaxMicros() {
+		return latencies.getMax();
+	}
+}
@@ -0,0 +1,31 @@
+package com.chatalk.app.metrics;
+
+/**
+ * Metrics of a command exposed through JMX
+ * Latencies are measured from the reception of the command to the queuing of its last response
+ */
+public interface CommandMetricsMBean {
+	long getCount();
+
+	/**
+	 * Returns the number of times the command's handler failed
+	 * @return number of exceptions swallowed by the handler
+	 */
+	long getErrors();
+
+	/**
+	 * Returns the number of times the command was rejected by the admission control
+	 * @return number of rateLimited responses
+	 */
+	long getRejected();
+
+	double getMeanMicros();
+
+	long getP50Micros();
+
+	long getP99Micros();
+
+	long getP999Micros();
+
+	long getMaxMicros();
+}
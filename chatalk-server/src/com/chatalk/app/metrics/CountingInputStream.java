@@ -0,0 +1,30 @@
+package com.chatalk.app.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream adding the bytes read from a client to the server metrics
+ */
+public class CountingInputStream extends FilterInputStream {
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b >= 0)
+			Metrics.getInstance().bytesReceived(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		if(read > 0)
+			Metrics.getInstance().bytesReceived(read);
+		return read;
+	}
+}
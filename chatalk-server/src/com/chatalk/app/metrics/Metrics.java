@@ -0,0 +1,266 @@
+package com.chatalk.app.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.chatalk.app.AdmissionControl;
+import com.chatalk.app.ClientHandler;
+import com.chatalk.app.Config;
+import com.chatalk.app.Server;
+import com.chatalk.app.util.LatencyHistogram;
+import com.chatalk.app.util.SnapshotWriter;
+
+/**
+ * Instrumentation of the server
+ * Keeps a latency histogram per command, the time spent in the DAOs and counters of the sessions and of their traffic
+ * Recording only updates striped counters and histogram buckets, without locks, so the metrics can stay on in production
+ * Metrics are read through JMX (domain com.chatalk) and through the plain-text endpoint started with metricsPort
+ */
+public class Metrics implements MetricsMBean {
+	/**
+	 * Metrics shared by all the sessions
+	 */
+	private static final Metrics INSTANCE = new Metrics();
+
+	/**
+	 * Metrics of each command, keyed by command name
+	 */
+	private ConcurrentHashMap<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+
+	/**
+	 * Time spent reading and writing through the DAOs in microseconds
+	 */
+	private LatencyHistogram daoReads = new LatencyHistogram();
+	private LatencyHistogram daoWrites = new LatencyHistogram();
+
+	private LongAdder bytesReceived = new LongAdder();
+	private LongAdder bytesSent = new LongAdder();
+	private LongAdder swallowedExceptions = new LongAdder();
+
+	/**
+	 * Server the MBeans are registered with, null until registerMBeans is called
+	 */
+	private MBeanServer mbeanServer;
+
+
+	private Metrics() {}
+
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the server's MBean, the MBean of each command is registered with its first use
+	 * @throws Exception if the MBean could not be registered
+	 */
+	public synchronized void registerMBeans() throws Exception {
+		if(mbeanServer != null)
+			return;
+
+		mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		mbeanServer.registerMBean(this, new ObjectName("com.chatalk:type=Server"));
+		for(Map.Entry<String, CommandMetrics> command : commands.entrySet())
+			registerCommand(command.getKey(), command.getValue());
+	}
+
+	/**
+	 * Returns the metrics of a command
+	 * @param name Name of a registered command
+	 * @return Metrics of the command, created with its first use
+	 */
+	public CommandMetrics command(String name) {
+		CommandMetrics command = commands.get(name);
+		if(command == null) {
+			synchronized(this) {
+				command = commands.get(name);
+				if(command == null) {
+					command = new CommandMetrics();
+					commands.put(name, command);
+					if(mbeanServer != null)
+						registerCommand(name, command);
+				}
+			}
+		}
+		return command;
+	}
+
+	private void registerCommand(String name, CommandMetrics command) {
+		try {
+			mbeanServer.registerMBean(command, new ObjectName("com.chatalk:type=Command,name=" + ObjectName.quote(name)));
+		} catch(Exception e) {}
+	}
+
+	/**
+	 * Returns the metrics of the commands used so far
+	 * @return Metrics keyed by command name, sorted by name
+	 */
+	public TreeMap<String, CommandMetrics> getCommands() {
+		return new TreeMap<>(commands);
+	}
+
+	/**
+	 * Records a read through a DAO
+	 * @param startNanos Value of System.nanoTime() when the read started
+	 */
+	public void daoRead(long startNanos) {
+		daoReads.record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Records a write through a DAO
+	 * @param startNanos Value of System.nanoTime() when the write started
+	 */
+	public void daoWrite(long startNanos) {
+		daoWrites.record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	public void bytesReceived(long bytes) {
+		bytesReceived.add(bytes);
+	}
+
+	public void bytesSent(long bytes) {
+		bytesSent.add(bytes);
+	}
+
+	/**
+	 * Records an exception swallowed by the handler of a command
+	 * @param command Name of the command
+	 */
+	public void exceptionSwallowed(String command) {
+		swallowedExceptions.increment();
+		if(command != null)
+			command(command).error();
+	}
+
+	public LatencyHistogram getDaoReadLatencies() {
+		return daoReads;
+	}
+
+	public LatencyHistogram getDaoWriteLatencies() {
+		return daoWrites;
+	}
+
+	public int getActiveSessions() {
+		return ClientHandler.getConnectedSessions();
+	}
+
+	public int getLoggedInSessions() {
+		return Server.sessionRegistry.getLoggedInCount();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getSwallowedExceptions() {
+		return swallowedExceptions.sum();
+	}
+
+	public long getRejectedCommands() {
+		return AdmissionControl.getRejectedCommands();
+	}
+
+	public long getDaoReads() {
+		return daoReads.getCount();
+	}
+
+	public double getDaoReadMeanMicros() {
+		return daoReads.getMean();
+	}
+
+	public long getDaoReadP99Micros() {
+		return daoReads.getValueAtPercentile(99);
+	}
+
+	public long getDaoWrites() {
+		return daoWrites.getCount();
+	}
+
+	public double getDaoWriteMeanMicros() {
+		return daoWrites.getMean();
+	}
+
+	public long getDaoWriteP99Micros() {
+		return daoWrites.getValueAtPercentile(99);
+	}
+
+	public long getSnapshotsWritten() {
+		return Config.getDataFileWriter().getSnapshotsWritten();
+	}
+
+	public long getLastSnapshotMillis() {
+		return Config.getDataFileWriter().getLastDurationMillis();
+	}
+
+	public long getMaxSnapshotMillis() {
+		return Config.getDataFileWriter().getMaxDurationMillis();
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format
+	 * @param out Destination of the metrics
+	 */
+	public void writeText(StringBuilder out) {
+		gauge(out, "chatalk_sessions_active", "Connections currently open", getActiveSessions());
+		gauge(out, "chatalk_sessions_logged_in", "Sessions currently logged in", getLoggedInSessions());
+		counter(out, "chatalk_bytes_received_total", "Bytes received from the clients", getBytesReceived());
+		counter(out, "chatalk_bytes_sent_total", "Bytes sent to the clients", getBytesSent());
+		counter(out, "chatalk_exceptions_swallowed_total", "Exceptions swallowed by the command handlers", getSwallowedExceptions());
+		counter(out, "chatalk_commands_rejected_total", "Commands rejected by the admission control", getRejectedCommands());
+
+		TreeMap<String, CommandMetrics> commands = getCommands();
+		header(out, "chatalk_command_latency_microseconds", "Time to process a command", "summary");
+		for(Map.Entry<String, CommandMetrics> command : commands.entrySet())
+			summary(out, "chatalk_command_latency_microseconds", "command=\"" + command.getKey() + "\"", command.getValue().getLatencies());
+		header(out, "chatalk_command_errors_total", "Exceptions swallowed by the handler of a command", "counter");
+		for(Map.Entry<String, CommandMetrics> command : commands.entrySet())
+			out.append("chatalk_command_errors_total{command=\"").append(command.getKey()).append("\"} ").append(command.getValue().getErrors()).append('\n');
+		header(out, "chatalk_command_rejected_total", "Times a command was rejected by the admission control", "counter");
+		for(Map.Entry<String, CommandMetrics> command : commands.entrySet())
+			out.append("chatalk_command_rejected_total{command=\"").append(command.getKey()).append("\"} ").append(command.getValue().getRejected()).append('\n');
+
+		header(out, "chatalk_dao_latency_microseconds", "Time spent in the DAOs", "summary");
+		summary(out, "chatalk_dao_latency_microseconds", "operation=\"read\"", daoReads);
+		summary(out, "chatalk_dao_latency_microseconds", "operation=\"write\"", daoWrites);
+
+		counter(out, "chatalk_snapshots_written_total", "Snapshots of the data file written", getSnapshotsWritten());
+		gauge(out, "chatalk_snapshot_last_milliseconds", "Time to write the last snapshot of the data file", getLastSnapshotMillis());
+		gauge(out, "chatalk_snapshot_max_milliseconds", "Longest time to write a snapshot of the data file", getMaxSnapshotMillis());
+		gauge(out, "chatalk_snapshot_last_bytes", "Size of the last snapshot of the data file", Config.getDataFileWriter().getLastSizeBytes());
+	}
+
+	private static void header(StringBuilder out, String name, String help, String type) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void gauge(StringBuilder out, String name, String help, long value) {
+		header(out, name, help, "gauge");
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void counter(StringBuilder out, String name, String help, long value) {
+		header(out, name, help, "counter");
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+		for(double quantile : new double[] {0.5, 0.99, 0.999}) {
+			out.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+					.append(histogram.getValueAtPercentile(quantile * 100)).append('\n');
+		}
+		out.append(name).append("_max{").append(labels).append("} ").append(histogram.getMax()).append('\n');
+		out.append(name).append("_sum{").append(labels).append("} ").append(histogram.getSum()).append('\n');
+		out.append(name).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+	}
+}
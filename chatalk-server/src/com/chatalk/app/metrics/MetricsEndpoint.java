@@ -0,0 +1,43 @@
+package com.chatalk.app.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Plain-text endpoint serving the metrics at /metrics, in the Prometheus text format
+ * Only bound to the loopback address, the metrics are meant to be scraped by an agent running on the server's host
+ */
+public class MetricsEndpoint implements HttpHandler {
+	private HttpServer server;
+
+
+	/**
+	 * Starts the endpoint in background
+	 * @param port Port of the endpoint
+	 * @throws IOException if the port could not be bound
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", this);
+		server.start(); //Scrapes are handled one at a time by the dispatcher thread of the HTTP server
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		StringBuilder text = new StringBuilder();
+		Metrics.getInstance().writeText(text);
+		byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.chatalk.app.metrics;
+
+/**
+ * Server metrics exposed through JMX
+ * The metrics of each command are exposed by their own CommandMetricsMBean
+ */
+public interface MetricsMBean {
+	int getActiveSessions();
+
+	int getLoggedInSessions();
+
+	long getBytesReceived();
+
+	long getBytesSent();
+
+	/**
+	 * Returns the number of exceptions swallowed by the command handlers
+	 * @return number of swallowed exceptions
+	 */
+	long getSwallowedExceptions();
+
+	long getRejectedCommands();
+
+	long getDaoReads();
+
+	double getDaoReadMeanMicros();
+
+	long getDaoReadP99Micros();
+
+	long getDaoWrites();
+
+	double getDaoWriteMeanMicros();
+
+	long getDaoWriteP99Micros();
+
+	long getSnapshotsWritten();
+
+	long getLastSnapshotMillis();
+
+	long getMaxSnapshotMillis();
+}
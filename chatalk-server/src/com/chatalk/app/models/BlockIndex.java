@@ -0,0 +1,85 @@
+package com.chatalk.app.models;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory graph of the blocks between users, kept in both directions
+ * For every user, the set of users he blocked and the set of users that blocked him
+ * Built from the blocks saved with the users and updated by the user store whenever a user is saved,
+ * lookups do not lock and take constant time
+ */
+public class BlockIndex {
+	/**
+	 * Users blocked by each user
+	 */
+	private ConcurrentHashMap<String, Set<String>> blocked;
+
+	/**
+	 * Users that blocked each user
+	 */
+	private ConcurrentHashMap<String, Set<String>> blockedBy;
+
+
+	BlockIndex() {
+		blocked = new ConcurrentHashMap<>();
+		blockedBy = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Checks if a user blocked another one
+	 * @param username User's username
+	 * @param blockedUsername Username of the user that may be blocked
+	 * @return true if username blocked blockedUsername
+	 */
+	public boolean isBlocked(String username, String blockedUsername) {
+		Set<String> users = blocked.get(username);
+		return users != null && users.contains(blockedUsername);
+	}
+
+	/**
+	 * Checks if a user has been blocked by another one
+	 * @param username User's username
+	 * @param blockerUsername Username of the user that may have blocked him
+	 * @return true if blockerUsername blocked username
+	 */
+	public boolean isBlockedBy(String username, String blockerUsername) {
+		Set<String> users = blockedBy.get(username);
+		return users != null && users.contains(blockerUsername);
+	}
+
+	/**
+	 * Replaces the blocks of a user, only the blocks added or removed are applied to the graph
+	 * Updates are made by the user store while holding its lock, one at a time
+	 * @param username User's username
+	 * @param blocks Users he blocked
+	 */
+	void setBlocks(String username, Collection<String> blocks) {
+		Set<String> previous = blocked.get(username);
+		if(previous == null)
+			previous = Collections.emptySet();
+
+		HashSet<String> current = new HashSet<>(blocks);
+		if(current.equals(previous))
+			return;
+
+		for(String blockedUsername : previous) {
+			if(!current.contains(blockedUsername)) {
+				Set<String> blockers = blockedBy.get(blockedUsername);
+				if(blockers != null)
+					blockers.remove(username);
+			}
+		}
+		for(String blockedUsername : current) {
+			if(!previous.contains(blockedUsername))
+				blockedBy.computeIfAbsent(blockedUsername, key -> ConcurrentHashMap.newKeySet()).add(username);
+		}
+
+		Set<String> users = ConcurrentHashMap.newKeySet(current.size());
+		users.addAll(current);
+		blocked.put(username, users);
+	}
+}
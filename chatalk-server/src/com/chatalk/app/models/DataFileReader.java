@@ -0,0 +1,133 @@
+package com.chatalk.app.models;
+
+import java.io.FileReader;
+import java.util.ArrayList;
+
+import com.chatalk.app.util.JsonReader;
+
+/**
+ * Reads the JSON data file one record at a time
+ * Users and log messages are handed to the caller as soon as they are read, the whole file is never held in memory
+ * Unknown members are skipped, so the reader keeps working if other data is saved in the file
+ */
+public class DataFileReader {
+	/**
+	 * Receives the records read from the data file
+	 */
+	public interface RecordHandler<T> {
+		void handle(T record) throws Exception;
+	}
+
+	/**
+	 * Path of the data file
+	 */
+	private String path;
+
+
+	public DataFileReader() {
+		this("resources/data.json");
+	}
+
+	public DataFileReader(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Reads the data file in a single pass
+	 * @param userHandler Receives every user, or null to skip the users
+	 * @param logHandler Receives every log message, or null to skip the logs
+	 * @throws Exception if JSON file not found or malformed, if User entity raises an exception or if a handler failed
+	 */
+	public void read(RecordHandler<User> userHandler, RecordHandler<LogMessage> logHandler) throws Exception {
+		try(JsonReader reader = new JsonReader(new FileReader(path))) {
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String name = reader.nextName();
+				if(name.equals("users") && userHandler != null) {
+					reader.beginArray();
+					while(reader.hasNext())
+						userHandler.handle(readUser(reader));
+					reader.endArray();
+				} else if(name.equals("logs") && logHandler != null) {
+					reader.beginArray();
+					while(reader.hasNext())
+						logHandler.handle(readLog(reader));
+					reader.endArray();
+				} else
+					reader.skipValue();
+			}
+			reader.endObject();
+		}
+	}
+
+	/**
+	 * Reads a user object
+	 */
+	private static User readUser(JsonReader reader) throws Exception {
+		User user = new User();
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String name = reader.nextName();
+			if(name.equals("username"))
+				user.setUsername(reader.nextString());
+			else if(name.equals("password"))
+				user.setPassword(reader.nextString());
+			else if(name.equals("status"))
+				user.setStatus(reader.nextString());
+			else if(name.equals("lastConnectionDate"))
+				user.setLastConnectionDate(reader.nextLong());
+			else if(name.equals("blocks")) {
+				//User's list of blocked users, saved as {"user": username} objects
+				ArrayList<String> blockedUsersList = new ArrayList<>();
+				reader.beginArray();
+				while(reader.hasNext()) {
+					reader.beginObject();
+					while(reader.hasNext()) {
+						if(reader.nextName().equals("user"))
+							blockedUsersList.add(reader.nextString());
+						else
+							reader.skipValue();
+					}
+					reader.endObject();
+				}
+				reader.endArray();
+				user.setBlocks(blockedUsersList);
+			} else
+				reader.skipValue();
+		}
+		reader.endObject();
+
+		return user;
+	}
+
+	/**
+	 * Reads a log message object
+	 */
+	private static LogMessage readLog(JsonReader reader) throws Exception {
+		LogMessage message = new LogMessage();
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String name = reader.nextName();
+			if(reader.peek() == JsonReader.Token.NULL) {
+				reader.nextNull();
+				continue;
+			}
+
+			if(name.equals("author"))
+				message.setAuthor(reader.nextString());
+			else if(name.equals("recipient"))
+				message.setRecipient(reader.nextString());
+			else if(name.equals("content"))
+				message.setContent(reader.nextString());
+			else if(name.equals("type"))
+				message.setType(reader.nextInt());
+			else if(name.equals("date"))
+				message.setDate(reader.nextLong());
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+
+		return message;
+	}
+}
@@ -112,6 +112,15 @@ public class LogMessage implements Serializable {
 		return new Date(date);
 	}
 
+	/**
+	 * Returns message date as a timestamp
+	 * Avoids allocating a Date when messages are compared
+	 * @return message timestamp
+	 */
+	public long getTimestamp() {
+		return date;
+	}
+
 	/**
 	 * Updates message date
 	 * @param date The new message date
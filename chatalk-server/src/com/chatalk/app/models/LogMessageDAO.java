@@ -1,89 +1,112 @@
 package com.chatalk.app.models;
 
 import java.util.ArrayList;
-import java.util.Collections;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import com.chatalk.app.Config;
-import com.chatalk.app.util.ArraySorting;
+import com.chatalk.app.metrics.Metrics;
 
 /**
- * Data manager for the User entity
+ * Data manager for the LogMessage entity
+ * Messages are saved in the append-only message log and indexed in memory by user
+ * Time spent in each method is recorded in the server metrics
  */
 public class LogMessageDAO {
+	/**
+	 * Lock held while a message is dated, saved and indexed
+	 */
+	private static final Object ADD_LOCK = new Object();
+
+	/**
+	 * Date of the last message saved
+	 */
+	private static long lastDate;
+
 	
 	/**
 	 * Retrieves the logs of a user
-	 * @return ArrayList of LogMessages
-	 * @throws Exception if JSON file not found or if LogMessage entity raises an exception
+	 * The user's messages and the broadcast messages are kept sorted in the message index, they only need to be merged
+	 * @return ArrayList of LogMessages sorted from most recent to oldest
+	 * @throws Exception if message log could not be read or if LogMessage entity raises an exception
 	 */
 	public ArrayList<LogMessage> getLogs(User user) throws Exception {
-		//Retrieve all the logs from the JSON file
-		JSONObject data = Config.parseDataFile();
-		JSONArray logs = data.getJSONArray("logs");
-
-		//Save the retrieved log messages in an array list of user objects
-		ArrayList<LogMessage> listLogMessages = new ArrayList<>();
-		for(int i = 0; i < logs.length(); i++) {
-			//Check if log message is a server message and if recipient is user
-			if(logs.getJSONObject(i).getInt("type") == 0 && logs.getJSONObject(i).getString("recipient").equals(user.getUsername())) {
-				LogMessage message = new LogMessage();
-				message.setRecipient(logs.getJSONObject(i).getString("recipient"));
-				message.setType(logs.getJSONObject(i).getInt("type"));
-				message.setContent(logs.getJSONObject(i).getString("content"));
-				message.setDate(logs.getJSONObject(i).getLong("date"));
-				message.setAuthor(null);
-				listLogMessages.add(message);
-			} else if(logs.getJSONObject(i).getInt("type") == 1 && (logs.getJSONObject(i).getString("author").equals(user.getUsername()) || logs.getJSONObject(i).getString("recipient").equals(user.getUsername()))) { //Check if log message is a private message and if user is recipient or author
-				LogMessage message = new LogMessage();
-				message.setAuthor(logs.getJSONObject(i).getString("author"));
-				message.setType(logs.getJSONObject(i).getInt("type"));
-				message.setContent(logs.getJSONObject(i).getString("content"));
-				message.setDate(logs.getJSONObject(i).getLong("date"));
-				message.setRecipient(logs.getJSONObject(i).getString("recipient"));
-				listLogMessages.add(message);
-			} else if(logs.getJSONObject(i).getInt("type") == 2) { //If log message is a broadcast message
-				LogMessage message = new LogMessage();
-				message.setAuthor(logs.getJSONObject(i).getString("author"));
-				message.setType(logs.getJSONObject(i).getInt("type"));
-				message.setContent(logs.getJSONObject(i).getString("content"));
-				message.setDate(logs.getJSONObject(i).getLong("date"));
-				message.setRecipient(logs.getJSONObject(i).getString("recipient"));
-				listLogMessages.add(message);
-			}
+		long start = System.nanoTime();
+		try {
+			return MessageIndex.getInstance().getLogs(user.getUsername());
+		} finally {
+			Metrics.getInstance().daoRead(start);
+		}
+	}
+	
+	/**
+	 * Retrieves a page of the logs of a user
+	 * @param user User
+	 * @param before Only messages older than this timestamp are returned
+	 * @param limit Number of messages of the page, exceeded only by messages having the same date as the oldest one
+	 * @return ArrayList of LogMessages sorted from most recent to oldest
+	 * @throws Exception if message log could not be read
+	 */
+	public ArrayList<LogMessage> getLogs(User user, long before, int limit) throws Exception {
+		long start = System.nanoTime();
+		try {
+			return MessageIndex.getInstance().getLogs(user.getUsername(), before, limit);
+		} finally {
+			Metrics.getInstance().daoRead(start);
 		}
-		
-		Collections.sort(listLogMessages, new ArraySorting()); //Sorts arraylist based on logs date
-		return listLogMessages;
 	}
 	
 	/**
-	 * Saves a message in the logs
-	 * @param logMessage Message to be saved
-	 * @throws Exception if JSON file not found or if LogMessage entity raises an exception
+	 * Retrieves the logs of a user sent since a given date
+	 * @param user User
+	 * @param since Only messages sent at or after this timestamp are returned
+	 * @param limit Maximum number of messages
+	 * @return ArrayList of LogMessages sorted from most recent to oldest, or null if there are more than limit messages
+	 * @throws Exception if message log could not be read
+	 */
+	public ArrayList<LogMessage> getLogsSince(User user, long since, int limit) throws Exception {
+		long start = System.nanoTime();
+		try {
+			return MessageIndex.getInstance().getLogsSince(user.getUsername(), since, limit);
+		} finally {
+			Metrics.getInstance().daoRead(start);
+		}
+	}
+	
+	/**
+	 * Checks if a user has logs older than a given date
+	 * @param user User
+	 * @param date Timestamp
+	 * @return true if at least one message is older than the date
+	 * @throws Exception if message log could not be read
+	 */
+	public boolean hasLogsBefore(User user, long date) throws Exception {
+		long start = System.nanoTime();
+		try {
+			return MessageIndex.getInstance().hasLogsBefore(user.getUsername(), date);
+		} finally {
+			Metrics.getInstance().daoRead(start);
+		}
+	}
+	
+	/**
+	 * Dates a message and saves it in the logs
+	 * Appending is O(1), the previous messages are not read
+	 * Messages are dated and indexed in one step, so they become visible in the order of their dates: a login that
+	 * received a message can never miss an older one indexed afterwards
+	 * @param logMessage Message to be saved, its date is set to the current time
+	 * @throws Exception if message log could not be written or if LogMessage entity raises an exception
 	 */
 	public void add(LogMessage logMessage) throws Exception {
-		//Retrieve JSON array of log messages
-		JSONObject data = Config.parseDataFile();
-		JSONArray logs = data.getJSONArray("logs");
-		
-		//Create a JSON object with the new log message data
-		JSONObject newLogMessage = new JSONObject();
-		
-		newLogMessage.put("author", logMessage.getAuthor());
-		newLogMessage.put("recipient", logMessage.getRecipient());
-		newLogMessage.put("content", logMessage.getContent());
-		newLogMessage.put("type", logMessage.getType());
-		newLogMessage.put("date", logMessage.getDate().getTime());
-		
-		logs.put(newLogMessage); //Add the new log message to the JSON array of log messages
-		
-		//Update logs array
-		data.put("logs", logs);
-		
-		//Save updated data in JSON file
-		Config.updateDataFile(data);
+		long start = System.nanoTime();
+		try {
+			MessageIndex index = MessageIndex.getInstance();
+			MessageLog log = MessageLog.getInstance();
+			synchronized(ADD_LOCK) {
+				lastDate = Math.max(lastDate, System.currentTimeMillis()); //Never older than the previous message, even if the clock goes back
+				logMessage.setDate(lastDate);
+				log.append(logMessage);
+				index.add(logMessage);
+			}
+		} finally {
+			Metrics.getInstance().daoWrite(start);
+		}
 	}
 }
@@ -0,0 +1,244 @@
+package com.chatalk.app.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the message log
+ * Keeps, for every user, the private messages he sent or received and the server messages sent to him,
+ * plus a separate timeline of the broadcast messages
+ * Every list is kept sorted by date (oldest first) as messages are added, so the logs of a user are a merge of two sorted lists
+ */
+public class MessageIndex {
+	/**
+	 * Index shared by all the sessions
+	 */
+	private static MessageIndex instance;
+
+	/**
+	 * Private and server messages of every user keyed by username
+	 */
+	private HashMap<String, ArrayList<LogMessage>> userMessages;
+
+	/**
+	 * Broadcast messages
+	 */
+	private ArrayList<LogMessage> broadcasts;
+
+	private ReentrantReadWriteLock lock;
+
+
+	private MessageIndex() {
+		userMessages = new HashMap<>();
+		broadcasts = new ArrayList<>();
+		lock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Returns the index, building it from the message log on first call
+	 * @return The message index
+	 * @throws Exception if message log could not be read
+	 */
+	public static synchronized MessageIndex getInstance() throws Exception {
+		if(instance == null) {
+			MessageIndex index = new MessageIndex();
+			for(LogMessage message : MessageLog.getInstance().readAll())
+				index.add(message);
+			instance = index;
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Indexes a message
+	 * @param message Message saved in the log
+	 */
+	public void add(LogMessage message) {
+		lock.writeLock().lock();
+		try {
+			if(message.getType() == 0) { //Server message, only seen by its recipient
+				LogMessage serverMessage = new LogMessage();
+				serverMessage.setRecipient(message.getRecipient());
+				serverMessage.setType(message.getType());
+				serverMessage.setContent(message.getContent());
+				serverMessage.setDate(message.getTimestamp());
+				serverMessage.setAuthor(null);
+				insert(messagesOf(message.getRecipient()), serverMessage);
+			} else if(message.getType() == 1) { //Private message, seen by its author and its recipient
+				insert(messagesOf(message.getAuthor()), message);
+				if(!message.getRecipient().equals(message.getAuthor()))
+					insert(messagesOf(message.getRecipient()), message);
+			} else if(message.getType() == 2) //Broadcast message, seen by everyone
+				insert(broadcasts, message);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Retrieves the logs of a user
+	 * @param username User's username
+	 * @return ArrayList of LogMessages sorted from most recent to oldest
+	 */
+	public ArrayList<LogMessage> getLogs(String username) {
+		return getLogs(username, Long.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Retrieves a page of the logs of a user
+	 * Messages having the same date as the oldest message of the page are all included, so that the next page can start strictly before that date
+	 * @param username User's username
+	 * @param before Only messages older than this timestamp are returned
+	 * @param limit Number of messages of the page
+	 * @return ArrayList of LogMessages sorted from most recent to oldest
+	 */
+	public ArrayList<LogMessage> getLogs(String username, long before, int limit) {
+		lock.readLock().lock();
+		try {
+			ArrayList<LogMessage> messages = userMessages.get(username);
+			if(messages == null)
+				messages = new ArrayList<>();
+
+			//Merge both lists starting from their most recent message older than the requested date
+			ArrayList<LogMessage> logs = new ArrayList<>(Math.min(limit, messages.size() + broadcasts.size()));
+			int i = firstIndexAtOrAfter(messages, before) - 1;
+			int j = firstIndexAtOrAfter(broadcasts, before) - 1;
+			while(i >= 0 || j >= 0) {
+				boolean fromMessages = j < 0 || (i >= 0 && messages.get(i).getTimestamp() >= broadcasts.get(j).getTimestamp());
+				LogMessage next = fromMessages ? messages.get(i) : broadcasts.get(j);
+
+				if(logs.size() >= limit && next.getTimestamp() != logs.get(logs.size() - 1).getTimestamp())
+					break;
+
+				logs.add(next);
+				if(fromMessages)
+					i--;
+				else
+					j--;
+			}
+
+			return logs;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Retrieves the logs of a user sent since a given date
+	 * Messages having exactly that date are included, the client already having some of them removes the duplicates
+	 * Counted and copied under the same lock, so a message added meanwhile cannot push the oldest one out of the result
+	 * @param username User's username
+	 * @param since Only messages sent at or after this timestamp are returned
+	 * @param limit Maximum number of messages
+	 * @return ArrayList of LogMessages sorted from most recent to oldest, or null if there are more than limit messages
+	 */
+	public ArrayList<LogMessage> getLogsSince(String username, long since, int limit) {
+		lock.readLock().lock();
+		try {
+			ArrayList<LogMessage> messages = userMessages.get(username);
+			if(messages == null)
+				messages = new ArrayList<>();
+
+			int firstMessage = firstIndexAtOrAfter(messages, since);
+			int firstBroadcast = firstIndexAtOrAfter(broadcasts, since);
+			int count = (messages.size() - firstMessage) + (broadcasts.size() - firstBroadcast);
+			if(count > limit)
+				return null;
+
+			//Merge both lists from their most recent message down to the requested date
+			ArrayList<LogMessage> logs = new ArrayList<>(count);
+			int i = messages.size() - 1;
+			int j = broadcasts.size() - 1;
+			while(i >= firstMessage || j >= firstBroadcast) {
+				boolean fromMessages = j < firstBroadcast || (i >= firstMessage && messages.get(i).getTimestamp() >= broadcasts.get(j).getTimestamp());
+				if(fromMessages)
+					logs.add(messages.get(i--));
+				else
+					logs.add(broadcasts.get(j--));
+			}
+
+			return logs;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Checks if a user has logs older than a given date
+	 * @param username User's username
+	 * @param date Timestamp
+	 * @return true if at least one message is older than the date
+	 */
+	public boolean hasLogsBefore(String username, long date) {
+		lock.readLock().lock();
+		try {
+			ArrayList<LogMessage> messages = userMessages.get(username);
+			if(messages != null && !messages.isEmpty() && messages.get(0).getTimestamp() < date)
+				return true;
+			return !broadcasts.isEmpty() && broadcasts.get(0).getTimestamp() < date;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the list of messages of a user, creating it if needed
+	 * Must be called while holding the write lock
+	 */
+	private ArrayList<LogMessage> messagesOf(String username) {
+		ArrayList<LogMessage> messages = userMessages.get(username);
+		if(messages == null) {
+			messages = new ArrayList<>();
+			userMessages.put(username, messages);
+		}
+		return messages;
+	}
+
+	/**
+	 * Binary search of the first message whose date is not older than a given date
+	 * @param messages List sorted from oldest to most recent
+	 * @param date Timestamp
+	 * @return Index of the message, or the size of the list if every message is older
+	 */
+	private static int firstIndexAtOrAfter(ArrayList<LogMessage> messages, long date) {
+		int low = 0;
+		int high = messages.size();
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(messages.get(middle).getTimestamp() < date)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Inserts a message in a list sorted by date
+	 * Messages usually arrive in order and are simply appended, older ones are inserted after the messages having the same date
+	 * @param messages List sorted from oldest to most recent
+	 * @param message Message to be inserted
+	 */
+	private static void insert(ArrayList<LogMessage> messages, LogMessage message) {
+		long date = message.getTimestamp();
+		int size = messages.size();
+		if(size == 0 || messages.get(size - 1).getTimestamp() <= date) {
+			messages.add(message);
+			return;
+		}
+
+		//Binary search of the first message more recent than the one to be inserted
+		int low = 0;
+		int high = size - 1;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(messages.get(middle).getTimestamp() <= date)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		messages.add(low, message);
+	}
+}
@@ -0,0 +1,392 @@
+package com.chatalk.app.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.chatalk.app.Config;
+
+/**
+ * Append-only log of the messages
+ * Messages are written sequentially to segment files in resources/logs, a new segment is started once the current one reaches its maximum size
+ * Each record is made of its payload length, the CRC32 of the payload and the payload itself:
+ * date (long), type (byte), author, recipient and content (int length + UTF-8 bytes, length -1 for null)
+ * At startup, the segments are scanned and a record left incomplete or corrupted by a crash is truncated
+ */
+public class MessageLog {
+	/**
+	 * Directory containing the segments
+	 */
+	private static final String LOG_DIRECTORY = "resources/logs";
+
+	/**
+	 * Size of a record header: payload length and CRC32
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Size of the buffer used when importing the data file
+	 */
+	private static final int IMPORT_BUFFER_SIZE = 1048576;
+
+	/**
+	 * Log shared by all the sessions
+	 */
+	private static MessageLog instance;
+
+	/**
+	 * Maximum size of a segment in bytes
+	 */
+	private long segmentSize;
+
+	/**
+	 * Whether every append is forced to the disk before returning
+	 */
+	private boolean fsync;
+
+	/**
+	 * Segment files, oldest first
+	 */
+	private ArrayList<File> segments;
+
+	/**
+	 * Channel used to append to the last segment
+	 */
+	private FileChannel currentSegment;
+
+	/**
+	 * Size of the last segment in bytes
+	 */
+	private long currentSegmentSize;
+
+	/**
+	 * Number of messages moved from the JSON data file when the log was opened
+	 */
+	private long importedMessages;
+
+
+	private MessageLog(long segmentSize, boolean fsync) {
+		this.segmentSize = segmentSize;
+		this.fsync = fsync;
+		segments = new ArrayList<>();
+	}
+
+	/**
+	 * Returns the log, recovering it from its segments on first call
+	 * Log messages still saved in the JSON data file are moved to the log the first time it is opened
+	 * @return The message log
+	 * @throws Exception if the segments could not be read or if JSON file not found
+	 */
+	public static synchronized MessageLog getInstance() throws Exception {
+		if(instance == null) {
+			JSONObject config = Config.parseConfigFile();
+			MessageLog log = new MessageLog(config.optLong("messageLogSegmentBytes", 8388608), config.optBoolean("messageLogFsync", false));
+			log.recover();
+			log.importedMessages = log.importDataFile();
+			instance = log;
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Appends a message to the log
+	 * @param message Message to be saved
+	 * @throws IOException if the message could not be written
+	 */
+	public synchronized void append(LogMessage message) throws IOException {
+		ByteBuffer record = encode(message);
+
+		//Start a new segment if the record does not fit in the current one
+		if(currentSegment == null || (currentSegmentSize > 0 && currentSegmentSize + record.remaining() > segmentSize))
+			rollover();
+
+		int size = record.remaining();
+		while(record.hasRemaining())
+			currentSegment.write(record);
+		if(fsync)
+			currentSegment.force(false);
+		currentSegmentSize += size;
+	}
+
+	/**
+	 * Returns the number of messages moved from the JSON data file when the log was opened
+	 * @return Number of messages, 0 if the data file contained none or the log already existed
+	 */
+	public long getImportedMessages() {
+		return importedMessages;
+	}
+
+	/**
+	 * Reads every message of the log, oldest first
+	 * @return ArrayList of LogMessages
+	 * @throws IOException if the segments could not be read
+	 */
+	public ArrayList<LogMessage> readAll() throws IOException {
+		//Only read what has been written so far, appends may happen while reading
+		File[] files;
+		long lastSegmentSize;
+		synchronized(this) {
+			files = segments.toArray(new File[segments.size()]);
+			lastSegmentSize = currentSegmentSize;
+		}
+
+		ArrayList<LogMessage> messages = new ArrayList<>();
+		for(int i = 0; i < files.length; i++) {
+			long limit = i == files.length - 1 ? lastSegmentSize : files[i].length();
+			read(files[i], limit, messages);
+		}
+
+		return messages;
+	}
+
+	/**
+	 * Scans the segments and truncates the last one after its last valid record
+	 * @throws IOException if the segments could not be read
+	 */
+	private void recover() throws IOException {
+		File directory = new File(LOG_DIRECTORY);
+		directory.mkdirs();
+
+		File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".log"));
+		Arrays.sort(files); //Segment names are zero padded, alphabetical order is creation order
+		segments.addAll(Arrays.asList(files));
+
+		if(segments.isEmpty())
+			return;
+
+		File last = segments.get(segments.size() - 1);
+		long validSize = read(last, last.length(), null);
+
+		currentSegment = FileChannel.open(last.toPath(), StandardOpenOption.WRITE);
+		if(validSize < last.length())
+			currentSegment.truncate(validSize); //Drop the record interrupted by a crash
+		currentSegment.position(validSize);
+		currentSegmentSize = validSize;
+	}
+
+	/**
+	 * Moves the log messages saved in the JSON data file to the log
+	 * Only done if the log is empty, the logs array of the data file is emptied afterwards
+	 * The data file is streamed, so it can be much larger than the heap
+	 * Messages are written to a temporary file renamed as the first segment once complete, so an interrupted import is simply started over
+	 * @return Number of messages imported
+	 * @throws Exception if JSON file not found or could not be updated
+	 */
+	private long importDataFile() throws Exception {
+		if(!segments.isEmpty())
+			return 0;
+
+		File segment = segmentFile(1);
+		File temporary = new File(segment.getPath() + ".tmp");
+		long[] imported = new long[1];
+
+		try(FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			//Records are gathered in a large buffer to write the segment in few system calls
+			ByteBuffer batch = ByteBuffer.allocate(IMPORT_BUFFER_SIZE);
+			new DataFileReader().read(null, message -> {
+				ByteBuffer record = encode(message);
+				if(record.remaining() > batch.remaining())
+					flushBatch(channel, batch);
+				if(record.remaining() > batch.remaining()) { //Larger than the buffer, written on its own
+					while(record.hasRemaining())
+						channel.write(record);
+				} else
+					batch.put(record);
+				imported[0]++;
+			});
+			flushBatch(channel, batch);
+			channel.force(false);
+		}
+
+		if(imported[0] == 0) {
+			temporary.delete();
+			return 0;
+		}
+		Files.move(temporary.toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+		segments.add(segment);
+		currentSegment = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE);
+		currentSegmentSize = currentSegment.size();
+		currentSegment.position(currentSegmentSize);
+
+		Config.updateDataFile("logs", new JSONArray());
+
+		return imported[0];
+	}
+
+	/**
+	 * Writes the records gathered in a buffer and empties it
+	 */
+	private static void flushBatch(FileChannel channel, ByteBuffer batch) throws IOException {
+		batch.flip();
+		while(batch.hasRemaining())
+			channel.write(batch);
+		batch.clear();
+	}
+
+	/**
+	 * Closes the current segment and starts a new one
+	 * @throws IOException if the new segment could not be created
+	 */
+	private void rollover() throws IOException {
+		if(currentSegment != null) {
+			currentSegment.force(false);
+			currentSegment.close();
+		}
+
+		int number = 1;
+		if(!segments.isEmpty()) {
+			String name = segments.get(segments.size() - 1).getName();
+			number = Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length())) + 1;
+		}
+
+		File segment = segmentFile(number);
+		currentSegment = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		currentSegmentSize = 0;
+		segments.add(segment);
+	}
+
+	/**
+	 * Returns the file of a segment
+	 * @param number Segment number, starting at 1
+	 * @return Segment file
+	 */
+	private static File segmentFile(int number) {
+		return new File(LOG_DIRECTORY, String.format("segment-%010d.log", number));
+	}
+
+	/**
+	 * Reads the valid records of a segment
+	 * Reading stops at the first incomplete or corrupted record
+	 * @param segment Segment file
+	 * @param limit Number of bytes of the segment to be read
+	 * @param messages List the messages are added to, or null to only validate the segment
+	 * @return Size of the valid part of the segment
+	 * @throws IOException if the segment could not be read
+	 */
+	private static long read(File segment, long limit, ArrayList<LogMessage> messages) throws IOException {
+		try(FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			CRC32 crc = new CRC32();
+			long position = 0;
+
+			while(position + HEADER_SIZE <= limit) {
+				header.clear();
+				if(!readFully(channel, header, position))
+					break;
+				header.flip();
+				int length = header.getInt();
+				int checksum = header.getInt();
+				if(length < 0 || position + HEADER_SIZE + length > limit)
+					break;
+
+				ByteBuffer payload = ByteBuffer.allocate(length);
+				if(!readFully(channel, payload, position + HEADER_SIZE))
+					break;
+				crc.reset();
+				crc.update(payload.array(), 0, length);
+				if((int) crc.getValue() != checksum)
+					break;
+
+				if(messages != null) {
+					payload.flip();
+					messages.add(decode(payload));
+				}
+				position += HEADER_SIZE + length;
+			}
+
+			return position;
+		}
+	}
+
+	/**
+	 * Fills a buffer from a given position of a channel
+	 * @return false if the end of the channel was reached first
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes a message as a log record
+	 * @param message Message to be encoded
+	 * @return Buffer ready to be written
+	 */
+	private static ByteBuffer encode(LogMessage message) {
+		byte[] author = message.getAuthor() == null ? null : message.getAuthor().getBytes(StandardCharsets.UTF_8);
+		byte[] recipient = message.getRecipient() == null ? null : message.getRecipient().getBytes(StandardCharsets.UTF_8);
+		byte[] content = message.getContent() == null ? null : message.getContent().getBytes(StandardCharsets.UTF_8);
+
+		int length = 8 + 1 + stringSize(author) + stringSize(recipient) + stringSize(content);
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+		record.putInt(length);
+		record.putInt(0); //Checksum, computed once the payload is written
+		record.putLong(message.getDate().getTime());
+		record.put((byte) message.getType());
+		putString(record, author);
+		putString(record, recipient);
+		putString(record, content);
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), HEADER_SIZE, length);
+		record.putInt(4, (int) crc.getValue());
+
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * Decodes the payload of a log record
+	 * @param payload Record payload
+	 * @return The message
+	 */
+	private static LogMessage decode(ByteBuffer payload) {
+		LogMessage message = new LogMessage();
+		message.setDate(payload.getLong());
+		message.setType(payload.get());
+		message.setAuthor(getString(payload));
+		message.setRecipient(getString(payload));
+		message.setContent(getString(payload));
+		return message;
+	}
+
+	private static int stringSize(byte[] string) {
+		return 4 + (string == null ? 0 : string.length);
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] string) {
+		if(string == null)
+			buffer.putInt(-1);
+		else {
+			buffer.putInt(string.length);
+			buffer.put(string);
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0)
+			return null;
+
+		String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return string;
+	}
+}
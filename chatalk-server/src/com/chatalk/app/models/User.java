@@ -37,6 +37,18 @@ public class User {
 		blocks = new ArrayList<>();
 	}
 	
+	/**
+	 * Copy constructor
+	 * @param user User to be copied
+	 */
+	public User(User user) {
+		username = user.username;
+		password = user.password;
+		status = user.status;
+		lastConnectionDate = user.lastConnectionDate;
+		blocks = new ArrayList<>(user.blocks);
+	}
+	
 	/**
 	 * Returns user's username
 	 * @return user's username
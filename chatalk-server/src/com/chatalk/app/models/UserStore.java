@@ -0,0 +1,254 @@
+package com.chatalk.app.models;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.chatalk.app.Config;
+
+/**
+ * In-memory store of the users keyed by username
+ * Users are loaded once from the JSON data file, mutations are written back to it in background
+ * Several mutations happening within the flush delay are coalesced into a single write
+ */
+public class UserStore {
+	/**
+	 * Store shared by all the sessions
+	 */
+	private static UserStore instance;
+
+	/**
+	 * Users keyed by username, in the order they are saved in the JSON data file
+	 */
+	private LinkedHashMap<String, User> users;
+
+	/**
+	 * Blocks between the users, kept in sync with the blocks of the users
+	 */
+	private BlockIndex blockIndex;
+
+	/**
+	 * Maximum time a mutation stays in memory before being written to the data file in ms
+	 */
+	private long flushDelay;
+
+	/**
+	 * Thread writing the mutations to the data file
+	 */
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Set while a flush is scheduled and has not started yet
+	 */
+	private boolean flushScheduled;
+
+	/**
+	 * Incremented on every mutation
+	 */
+	private long version;
+
+	/**
+	 * Version saved in the data file
+	 */
+	private long flushedVersion;
+
+	/**
+	 * Lock preventing two flushes from writing the data file at the same time
+	 */
+	private final Object flushLock = new Object();
+
+
+	private UserStore(long flushDelay) {
+		this.flushDelay = flushDelay;
+		users = new LinkedHashMap<>();
+		blockIndex = new BlockIndex();
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "user-store-flusher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the store, loading it from the JSON data file on first call
+	 * Pending mutations are written to the data file when the server shuts down
+	 * @return The user store
+	 * @throws Exception if JSON file not found or if User entity raises an exception
+	 */
+	public static synchronized UserStore getInstance() throws Exception {
+		if(instance == null) {
+			UserStore store = new UserStore(Config.parseConfigFile().optLong("userFlushDelayMillis", 1000));
+			store.load();
+			store.resetOnlineStatuses();
+
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					store.flush();
+				}
+			}));
+
+			instance = store;
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Retrieves a copy of every user
+	 * @return ArrayList of users
+	 */
+	public synchronized ArrayList<User> getUsers() {
+		ArrayList<User> listUsers = new ArrayList<>(users.size());
+		for(User user : users.values())
+			listUsers.add(new User(user));
+
+		return listUsers;
+	}
+
+	/**
+	 * Retrieves a copy of a user
+	 * @param username User's username
+	 * @return The user or null if no user has this username
+	 */
+	public synchronized User getUser(String username) {
+		User user = users.get(username);
+		return user == null ? null : new User(user);
+	}
+
+	/**
+	 * Checks if a user exists
+	 * @param username User's username
+	 * @return true if a user has this username
+	 */
+	public synchronized boolean contains(String username) {
+		return users.containsKey(username);
+	}
+
+	/**
+	 * Returns the blocks between the users
+	 * @return Block index, updated as users are saved
+	 */
+	public BlockIndex getBlockIndex() {
+		return blockIndex;
+	}
+
+	/**
+	 * Adds a user or replaces the user having the same username
+	 * @param user User to be saved
+	 */
+	public synchronized void put(User user) {
+		users.put(user.getUsername(), new User(user));
+		blockIndex.setBlocks(user.getUsername(), user.getBlocks());
+
+		version++;
+		scheduleFlush();
+	}
+
+	/**
+	 * Writes the users to the JSON data file if they changed since the last flush
+	 */
+	public void flush() {
+		synchronized(flushLock) {
+			JSONArray usersArray = new JSONArray();
+			long snapshotVersion;
+
+			//Take a snapshot of the users, the data file is written without holding the store lock
+			synchronized(this) {
+				flushScheduled = false;
+				if(version == flushedVersion)
+					return;
+
+				snapshotVersion = version;
+				for(User user : users.values())
+					usersArray.put(toJSON(user));
+			}
+
+			try {
+				Config.updateDataFile("users", usersArray);
+
+				synchronized(this) {
+					flushedVersion = snapshotVersion;
+				}
+			} catch(Exception e) {
+				//Data file could not be written, try again later
+				synchronized(this) {
+					scheduleFlush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedules a flush unless one is already pending
+	 * Must be called while holding the store lock
+	 */
+	private void scheduleFlush() {
+		if(flushScheduled)
+			return;
+
+		flushScheduled = true;
+		flusher.schedule(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, flushDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Loads the users from the JSON data file
+	 * The file is streamed, the logs it may still contain are skipped without being parsed
+	 * @throws Exception if JSON file not found or if User entity raises an exception
+	 */
+	private void load() throws Exception {
+		new DataFileReader().read(user -> {
+			users.put(user.getUsername(), user);
+			blockIndex.setBlocks(user.getUsername(), user.getBlocks());
+		}, null);
+	}
+
+	/**
+	 * Marks offline the users left online by a previous run of the server
+	 * No session exists yet, so nobody can be online when the store is loaded
+	 */
+	private synchronized void resetOnlineStatuses() {
+		for(User user : users.values()) {
+			if(user.getStatus().equals("online")) {
+				user.setStatus("offline");
+				version++;
+			}
+		}
+
+		if(version != flushedVersion)
+			scheduleFlush();
+	}
+
+	/**
+	 * Converts a user to the JSON object saved in the data file
+	 * @param user User to be converted
+	 * @return JSON object
+	 */
+	private static JSONObject toJSON(User user) {
+		JSONObject userObject = new JSONObject();
+		userObject.put("username", user.getUsername());
+		userObject.put("password", user.getPassword());
+		userObject.put("status", user.getStatus());
+		userObject.put("lastConnectionDate", user.getLastConnectionDate().getTime());
+		JSONArray blocks = new JSONArray();
+		for(String blockedUser : user.getBlocks()) {
+			JSONObject blocked = new JSONObject();
+			blocked.put("user", blockedUser);
+			blocks.put(blocked);
+		}
+		userObject.put("blocks", blocks);
+
+		return userObject;
+	}
+}
@@ -0,0 +1,98 @@
+package com.chatalk.app.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Event loop multiplexing several client connections on a single thread
+ * Only reads and writes are done on this thread, the commands are processed by the session executor
+ */
+public class EventLoop implements Runnable {
+	/**
+	 * Selector used to wait for I/O readiness on the connections
+	 */
+	private Selector selector;
+
+	/**
+	 * Connections accepted by the server that still have to be registered with the selector
+	 */
+	private ConcurrentLinkedQueue<SocketChannel> pendingChannels;
+
+	/**
+	 * Executor processing the commands of the connections
+	 */
+	private Executor sessionExecutor;
+
+
+	/**
+	 * @param sessionExecutor Executor processing the commands of the connections
+	 * @throws IOException if the selector could not be opened
+	 */
+	public EventLoop(Executor sessionExecutor) throws IOException {
+		selector = Selector.open();
+		pendingChannels = new ConcurrentLinkedQueue<>();
+		this.sessionExecutor = sessionExecutor;
+	}
+
+	/**
+	 * Hands a new connection over to the event loop
+	 * Can be called from any thread
+	 * @param channel Connection accepted by the server
+	 */
+	public void register(SocketChannel channel) {
+		pendingChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Wakes the selector up so that interest changes made from other threads are taken into account
+	 */
+	void wakeup() {
+		selector.wakeup();
+	}
+
+	/**
+	 * Method automatically executed when the thread is started
+	 */
+	public void run() {
+		while(true) {
+			try {
+				selector.select();
+
+				//Register connections accepted since the last selection
+				SocketChannel channel;
+				while((channel = pendingChannels.poll()) != null) {
+					try {
+						channel.configureBlocking(false);
+						SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+						NioSession session = new NioSession(this, channel, key, sessionExecutor);
+						key.attach(session);
+						session.open();
+					} catch(Exception e) {
+						channel.close();
+					}
+				}
+
+				//Process ready connections
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					NioSession session = (NioSession) key.attachment();
+					if(!key.isValid())
+						continue;
+					if(key.isWritable())
+						session.flushPendingWrites();
+					if(key.isValid() && key.isReadable())
+						session.read();
+				}
+			} catch(Exception e) {}
+		}
+	}
+}
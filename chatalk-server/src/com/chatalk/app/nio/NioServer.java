@@ -0,0 +1,67 @@
+package com.chatalk.app.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Selector based front end of the server
+ * Connections are accepted on a ServerSocketChannel and spread over a small pool of event loops
+ * Each event loop multiplexes the reads and writes of all its connections on a single thread
+ */
+public class NioServer {
+	/**
+	 * Port on which the server listens for new connections
+	 */
+	private int port;
+
+	/**
+	 * Event loops handling the accepted connections
+	 */
+	private EventLoop[] eventLoops;
+
+	/**
+	 * Index of the event loop that will receive the next connection
+	 */
+	private int nextEventLoop = 0;
+
+	/**
+	 * Executor processing the commands received by the event loops
+	 */
+	private Executor sessionExecutor;
+
+
+	public NioServer(int port, int eventLoopThreads, Executor sessionExecutor) {
+		this.port = port;
+		this.eventLoops = new EventLoop[Math.max(1, eventLoopThreads)];
+		this.sessionExecutor = sessionExecutor;
+	}
+
+	/**
+	 * Starts the event loops and accepts new connections
+	 * Never returns unless the server socket fails
+	 * @throws IOException if server socket could not be opened
+	 */
+	public void run() throws IOException {
+		//Start the event loops
+		for(int i = 0; i < eventLoops.length; i++) {
+			eventLoops[i] = new EventLoop(sessionExecutor);
+			Thread thread = new Thread(eventLoops[i], "event-loop-" + i);
+			thread.start();
+		}
+
+		ServerSocketChannel welcomeChannel = ServerSocketChannel.open();
+		welcomeChannel.bind(new InetSocketAddress(port));
+
+		while(true) {
+			// Wait for contact
+			SocketChannel connectionChannel = welcomeChannel.accept();
+
+			//Hand the connection over to the event loops in a round robin fashion
+			eventLoops[nextEventLoop].register(connectionChannel);
+			nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+		}
+	}
+}
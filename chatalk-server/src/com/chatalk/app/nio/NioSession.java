@@ -0,0 +1,335 @@
+package com.chatalk.app.nio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.chatalk.app.ClientHandler;
+import com.chatalk.app.Server;
+import com.chatalk.app.metrics.Metrics;
+import com.chatalk.app.protocol.NonBlockingOutput;
+
+/**
+ * Connection with a client handled by an event loop
+ * Decodes the newline-terminated commands sent by the client and hands them to its ClientHandler
+ * The event loop only does I/O, the commands of a session are processed in order by a task of the session executor
+ */
+public class NioSession {
+	/**
+	 * Commands longer than this are considered malicious and the connection is closed
+	 */
+	private static final int MAX_COMMAND_LENGTH = 65536;
+
+	/**
+	 * The outbound queue stops handing outputs over once this many bytes are pending, until the socket buffer drains
+	 * Keeps the outputs of a slow client in its bounded outbound queue rather than in memory here
+	 */
+	private static final int MAX_PENDING_BYTES = 262144;
+
+	/**
+	 * Reading is suspended once this many commands are waiting to be processed, until the session catches up
+	 */
+	private static final int MAX_PENDING_COMMANDS = 64;
+
+	/**
+	 * Event loop the connection is registered with
+	 */
+	private EventLoop eventLoop;
+
+	/**
+	 * Channel used to communicate with the client
+	 */
+	private SocketChannel channel;
+
+	/**
+	 * Registration of the channel with the event loop selector
+	 */
+	private SelectionKey key;
+
+	/**
+	 * Client handler processing the commands received on this connection
+	 */
+	private ClientHandler clientHandler;
+
+	/**
+	 * Buffer used to read from the channel
+	 */
+	private ByteBuffer readBuffer;
+
+	/**
+	 * Bytes of the command currently being received
+	 */
+	private byte[] line;
+
+	/**
+	 * Number of bytes of the command currently being received
+	 */
+	private int lineLength;
+
+	/**
+	 * Outputs that could not be written right away because the socket buffer was full
+	 */
+	private ArrayDeque<ByteBuffer> pendingWrites;
+
+	/**
+	 * Number of bytes waiting in pendingWrites
+	 */
+	private int pendingBytes;
+
+	/**
+	 * Executed when the pending bytes fall back under the limit, restarts the outbound queue
+	 */
+	private Runnable onDrained;
+
+	/**
+	 * Executor running the tasks processing the commands
+	 */
+	private Executor executor;
+
+	/**
+	 * Commands decoded by the event loop and not processed yet, in the order they were received
+	 */
+	private ConcurrentLinkedQueue<String> pendingCommands;
+
+	/**
+	 * Set while a task processing the pending commands is scheduled or running
+	 * Only one task runs at a time so the commands of the session are processed in order
+	 */
+	private AtomicBoolean processing;
+
+	/**
+	 * Set while reading is suspended because too many commands are pending
+	 */
+	private boolean readSuspended;
+
+
+	NioSession(EventLoop eventLoop, SocketChannel channel, SelectionKey key, Executor executor) {
+		this.eventLoop = eventLoop;
+		this.channel = channel;
+		this.key = key;
+		this.executor = executor;
+		readBuffer = ByteBuffer.allocate(4096);
+		line = new byte[256];
+		pendingWrites = new ArrayDeque<>();
+		pendingCommands = new ConcurrentLinkedQueue<>();
+		processing = new AtomicBoolean();
+	}
+
+	/**
+	 * Creates the client handler of the connection
+	 * @throws Exception if the output stream could not be opened
+	 */
+	void open() throws Exception {
+		clientHandler = new ClientHandler(channel.socket());
+		clientHandler.openOutput(new ChannelOutputStream());
+		clientHandler.startIdleMonitoring();
+		Server.sessionRegistry.add(clientHandler);
+	}
+
+	/**
+	 * Reads the available bytes and queues every complete command
+	 * Executed by the event loop when the channel is readable
+	 */
+	void read() {
+		try {
+			readBuffer.clear();
+			int read = channel.read(readBuffer);
+			if(read == -1) {
+				close();
+				return;
+			}
+			Metrics.getInstance().bytesReceived(read);
+
+			readBuffer.flip();
+			while(readBuffer.hasRemaining()) {
+				byte b = readBuffer.get();
+				if(b == '\n') {
+					//Same line ending handling as BufferedReader.readLine()
+					int length = lineLength;
+					if(length > 0 && line[length-1] == '\r')
+						length--;
+					String command = new String(line, 0, length, Charset.defaultCharset());
+					lineLength = 0;
+
+					pendingCommands.add(command);
+				} else {
+					if(lineLength == line.length) {
+						if(line.length >= MAX_COMMAND_LENGTH) {
+							close();
+							return;
+						}
+						line = Arrays.copyOf(line, line.length * 2);
+					}
+					line[lineLength++] = b;
+				}
+			}
+
+			if(!pendingCommands.isEmpty()) {
+				//Stop reading from a client sending commands faster than they are processed
+				if(pendingCommands.size() >= MAX_PENDING_COMMANDS)
+					setReadSuspended(true);
+				scheduleProcessing();
+			}
+		} catch(Exception e) {
+			close();
+		}
+	}
+
+	/**
+	 * Starts a task processing the pending commands unless one is already scheduled
+	 */
+	private void scheduleProcessing() {
+		if(processing.compareAndSet(false, true))
+			executor.execute(this::processCommands);
+	}
+
+	/**
+	 * Processes the pending commands in order
+	 * Executed by the session executor, never by the event loop
+	 */
+	private void processCommands() {
+		try {
+			String command;
+			while((command = pendingCommands.poll()) != null && channel.isOpen()) {
+				clientHandler.handleCommand(command);
+				if(readSuspended && pendingCommands.size() < MAX_PENDING_COMMANDS / 2)
+					setReadSuspended(false);
+			}
+		} catch(Exception e) {
+			close();
+		} finally {
+			processing.set(false);
+		}
+
+		//A command may have been queued after the last poll
+		if(!pendingCommands.isEmpty() && channel.isOpen())
+			scheduleProcessing();
+		else if(readSuspended)
+			setReadSuspended(false);
+	}
+
+	/**
+	 * Suspends or resumes reading from the channel
+	 * @param suspended true to stop reading
+	 */
+	private void setReadSuspended(boolean suspended) {
+		synchronized(key) {
+			readSuspended = suspended;
+			updateInterestOps();
+		}
+		eventLoop.wakeup();
+	}
+
+	/**
+	 * Registers the events the event loop waits for, depending on whether reading is suspended and writes are pending
+	 * Must be called while holding the key's lock
+	 */
+	private void updateInterestOps() {
+		if(!key.isValid())
+			return;
+		int ops = readSuspended ? 0 : SelectionKey.OP_READ;
+		if(!pendingWrites.isEmpty())
+			ops |= SelectionKey.OP_WRITE;
+		key.interestOps(ops);
+	}
+
+	/**
+	 * Writes the outputs that were waiting for the socket buffer to drain
+	 * Executed by the event loop when the channel is writable
+	 */
+	void flushPendingWrites() {
+		boolean drained = false;
+		try {
+			synchronized(pendingWrites) {
+				boolean saturated = pendingBytes > MAX_PENDING_BYTES;
+				while(!pendingWrites.isEmpty()) {
+					ByteBuffer buffer = pendingWrites.peek();
+					pendingBytes -= channel.write(buffer);
+					if(buffer.hasRemaining())
+						break; //Socket buffer is full again, wait for next writability event
+					pendingWrites.poll();
+				}
+				drained = saturated && pendingBytes <= MAX_PENDING_BYTES;
+				synchronized(key) {
+					updateInterestOps();
+				}
+			}
+		} catch(Exception e) {
+			close();
+			return;
+		}
+
+		if(drained && onDrained != null)
+			onDrained.run();
+	}
+
+	/**
+	 * Closes the connection
+	 */
+	void close() {
+		try {
+			clientHandler.close();
+		} catch(Exception e) {}
+		try {
+			channel.close();
+		} catch(Exception e) {}
+	}
+
+	/**
+	 * Stream used by the client handler to send outputs to the client
+	 * Writes go straight to the channel and never block, what does not fit in the socket buffer is queued until it becomes writable
+	 * Written by the session's outbound queue, which stops draining while too many bytes are pending
+	 */
+	private class ChannelOutputStream extends OutputStream implements NonBlockingOutput {
+		@Override
+		public boolean isSaturated() {
+			synchronized(pendingWrites) {
+				return pendingBytes > MAX_PENDING_BYTES;
+			}
+		}
+
+		@Override
+		public void setOnDrained(Runnable callback) {
+			onDrained = callback;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized(pendingWrites) {
+				if(!channel.isOpen())
+					throw new IOException("connectionClosed");
+
+				ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+				if(pendingWrites.isEmpty())
+					channel.write(buffer);
+
+				if(buffer.hasRemaining()) {
+					//Caller may reuse its array, keep a copy of what is left
+					ByteBuffer remaining = ByteBuffer.allocate(buffer.remaining());
+					remaining.put(buffer);
+					remaining.flip();
+					pendingWrites.add(remaining);
+					pendingBytes += remaining.remaining();
+
+					synchronized(key) {
+						updateInterestOps();
+					}
+					eventLoop.wakeup();
+				}
+			}
+		}
+	}
+}
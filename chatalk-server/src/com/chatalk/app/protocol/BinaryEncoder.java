@@ -0,0 +1,104 @@
+package com.chatalk.app.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.chatalk.app.models.LogMessage;
+
+/**
+ * Compact binary protocol negotiated with the protocol command
+ * @see Protocol
+ */
+public class BinaryEncoder implements ResponseEncoder {
+	public static final BinaryEncoder INSTANCE = new BinaryEncoder();
+
+	private BinaryEncoder() {
+	}
+
+	public void writeHeader(OutputStream out) {
+		//Frames are self-delimited, no header needed
+	}
+
+	public byte[] encode(Object response) throws IOException {
+		FrameBuffer payload = new FrameBuffer(64);
+
+		if(response instanceof String) {
+			byte opcode = Protocol.opcodeOf((String) response);
+			if(opcode != 0)
+				payload.writeByte(opcode);
+			else {
+				payload.writeByte(Protocol.TEXT);
+				payload.writeString((String) response);
+			}
+		} else if(response instanceof LogMessage) {
+			payload.writeByte(Protocol.MESSAGE);
+			writeMessage(payload, (LogMessage) response);
+		} else if(response instanceof Long) {
+			payload.writeByte(Protocol.CURSOR);
+			payload.writeVarLong((Long) response);
+		} else if(response instanceof List) {
+			List<?> list = (List<?>) response;
+			boolean messages = !list.isEmpty() && list.get(0) instanceof LogMessage;
+			payload.writeByte(messages ? Protocol.MESSAGE_LIST : Protocol.STRING_LIST);
+			payload.writeVarLong(list.size());
+			for(Object item : list) {
+				if(messages)
+					writeMessage(payload, (LogMessage) item);
+				else
+					payload.writeString((String) item);
+			}
+		} else
+			throw new IOException("unsupportedResponse");
+
+		//Prefix the frame with its length
+		FrameBuffer frame = new FrameBuffer(payload.size() + 5);
+		frame.writeVarLong(payload.size());
+		frame.write(payload.array(), 0, payload.size());
+		return frame.toByteArray();
+	}
+
+	private static void writeMessage(FrameBuffer out, LogMessage message) {
+		out.writeVarLong(message.getTimestamp());
+		out.writeVarLong(message.getType());
+		out.writeString(message.getAuthor());
+		out.writeString(message.getRecipient());
+		out.writeString(message.getContent());
+	}
+
+	/**
+	 * Growable byte buffer with varint helpers
+	 */
+	private static class FrameBuffer extends java.io.ByteArrayOutputStream {
+		private FrameBuffer(int size) {
+			super(size);
+		}
+
+		private byte[] array() {
+			return buf;
+		}
+
+		private void writeByte(int b) {
+			write(b);
+		}
+
+		private void writeVarLong(long value) {
+			while((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		private void writeString(String string) {
+			if(string == null) {
+				writeVarLong(0);
+				return;
+			}
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length + 1);
+			write(bytes, 0, bytes.length);
+		}
+	}
+}
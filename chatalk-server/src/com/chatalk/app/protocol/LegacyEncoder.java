@@ -0,0 +1,42 @@
+package com.chatalk.app.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+
+/**
+ * Java object serialization, as read by the client's ObjectInputStream
+ * Every response is preceded by a reset so it does not refer to previously sent objects:
+ * the same bytes can be shared between connections and the handle table of the client's stream does not grow
+ */
+public class LegacyEncoder implements ResponseEncoder {
+	public static final LegacyEncoder INSTANCE = new LegacyEncoder();
+
+	private LegacyEncoder() {
+	}
+
+	public void writeHeader(OutputStream out) throws IOException {
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeShort(ObjectStreamConstants.STREAM_MAGIC);
+		header.writeShort(ObjectStreamConstants.STREAM_VERSION);
+		header.flush();
+	}
+
+	public byte[] encode(Object response) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		ObjectOutputStream out = new ObjectOutputStream(bytes) {
+			@Override
+			protected void writeStreamHeader() {
+				//Header has already been sent when the connection was established
+			}
+		};
+		out.reset();
+		out.writeObject(response);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,20 @@
+package com.chatalk.app.protocol;
+
+/**
+ * Stream whose writes never block
+ * What cannot be sent right away is buffered by the stream itself, the outbound queue stops handing it outputs while it
+ * holds too many bytes and resumes once they have been sent
+ */
+public interface NonBlockingOutput {
+	/**
+	 * Checks if the stream holds too many bytes waiting to be sent
+	 * @return true if no more outputs should be written for now
+	 */
+	boolean isSaturated();
+
+	/**
+	 * Sets the callback executed when a saturated stream has sent enough of its bytes
+	 * @param onDrained Callback, executed by the thread sending the bytes
+	 */
+	void setOnDrained(Runnable onDrained);
+}
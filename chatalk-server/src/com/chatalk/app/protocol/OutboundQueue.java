@@ -0,0 +1,290 @@
+package com.chatalk.app.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.chatalk.app.Config;
+import com.chatalk.app.metrics.Metrics;
+
+/**
+ * Bounded queue of the outputs waiting to be sent to a client
+ * Producers only enqueue encoded bytes, a writer task drains the queue to the client's stream,
+ * so a slow or dead client never blocks the thread that produced an output for it
+ * When the queue is full, either the oldest pushed message is dropped (dropOldest) or the client is disconnected (disconnect)
+ * Responses to the client's own commands are never dropped, a client not reading them is disconnected
+ * The writers are a bounded pool shared by all the sessions: on the nio transport the writes never block, the queue stops
+ * draining while the channel is saturated; on the blocking transport a client whose write has been stuck for too long is
+ * disconnected once its queue is full, which releases the writer
+ */
+public class OutboundQueue {
+	public static final String DROP_OLDEST = "dropOldest";
+	public static final String DISCONNECT = "disconnect";
+
+	/**
+	 * Maximum number of bytes written to the client's stream at once
+	 */
+	private static final int MAX_WRITE_SIZE = 65536;
+
+	/**
+	 * A client whose write has been blocked for this long is disconnected once its queue is full, whatever the policy
+	 */
+	private static final long STALLED_WRITE_MILLIS = 10000;
+
+	/**
+	 * Threads draining the queues, shared by all the sessions
+	 */
+	private static ExecutorService writers;
+
+	/**
+	 * Number of pushed messages dropped because their recipient's queue was full
+	 */
+	private static AtomicLong droppedOutputs = new AtomicLong();
+
+	/**
+	 * Number of clients disconnected because their queue was full
+	 */
+	private static AtomicLong slowConsumersDisconnected = new AtomicLong();
+
+	/**
+	 * Stream connected to the client
+	 */
+	private OutputStream out;
+
+	/**
+	 * Maximum number of outputs waiting in the queue
+	 */
+	private int capacity;
+
+	/**
+	 * Whether the client is disconnected instead of losing messages when its queue is full
+	 */
+	private boolean disconnectWhenFull;
+
+	/**
+	 * Executed when the client has to be disconnected: queue full or stream broken
+	 */
+	private Runnable onFailure;
+
+	private ArrayDeque<Output> outputs;
+
+	/**
+	 * Set while a writer task is draining the queue
+	 */
+	private boolean draining;
+
+	private boolean closed;
+
+	/**
+	 * Date the write in progress started, 0 when no write is in progress
+	 */
+	private volatile long writeStartedAt;
+
+
+	/**
+	 * @param out Stream connected to the client
+	 * @param capacity Maximum number of outputs waiting in the queue
+	 * @param policy dropOldest or disconnect
+	 * @param onFailure Executed when the client has to be disconnected
+	 */
+	public OutboundQueue(OutputStream out, int capacity, String policy, Runnable onFailure) {
+		this.out = out;
+		this.capacity = Math.max(1, capacity);
+		this.disconnectWhenFull = DISCONNECT.equalsIgnoreCase(policy);
+		this.onFailure = onFailure;
+		outputs = new ArrayDeque<>();
+		if(out instanceof NonBlockingOutput)
+			((NonBlockingOutput) out).setOnDrained(this::resume);
+	}
+
+	/**
+	 * Queues an output to be sent to the client
+	 * @param bytes Encoded output
+	 * @param droppable true if the output may be dropped when the queue is full
+	 */
+	public void offer(byte[] bytes, boolean droppable) {
+		boolean disconnect = false;
+		synchronized(this) {
+			if(closed)
+				return;
+
+			if(outputs.size() >= capacity) {
+				long writeStarted = writeStartedAt;
+				if(writeStarted != 0 && System.currentTimeMillis() - writeStarted > STALLED_WRITE_MILLIS)
+					disconnect = true; //Writer is stuck on this client, disconnecting it releases the writer
+				else if(!disconnectWhenFull && dropOldest(droppable))
+					droppedOutputs.incrementAndGet();
+				else
+					disconnect = true;
+			}
+
+			if(!disconnect && outputs.size() < capacity) {
+				outputs.add(new Output(bytes, droppable));
+				if(!draining) {
+					draining = true;
+					getWriters().execute(this::drain);
+				}
+			}
+		}
+
+		if(disconnect) {
+			slowConsumersDisconnected.incrementAndGet();
+			onFailure.run();
+		}
+	}
+
+	/**
+	 * Starts draining the queue again once a saturated stream has sent its bytes
+	 */
+	private void resume() {
+		synchronized(this) {
+			if(closed || draining || outputs.isEmpty())
+				return;
+			draining = true;
+		}
+		getWriters().execute(this::drain);
+	}
+
+	/**
+	 * Stops sending outputs, the ones still queued are discarded
+	 * @throws IOException if stream could not be closed
+	 */
+	public void close() throws IOException {
+		synchronized(this) {
+			closed = true;
+			outputs.clear();
+		}
+		out.close();
+	}
+
+	/**
+	 * Returns the number of pushed messages dropped because their recipient's queue was full
+	 * @return number of dropped outputs
+	 */
+	public static long getDroppedOutputs() {
+		return droppedOutputs.get();
+	}
+
+	/**
+	 * Returns the number of clients disconnected because their queue was full
+	 * @return number of disconnected clients
+	 */
+	public static long getSlowConsumersDisconnected() {
+		return slowConsumersDisconnected.get();
+	}
+
+	/**
+	 * Makes room for a new output by dropping the oldest droppable output
+	 * Must be called while holding the queue lock
+	 * @param droppable true if the new output may be dropped itself
+	 * @return false if nothing can be dropped and the client has to be disconnected
+	 */
+	private boolean dropOldest(boolean droppable) {
+		Iterator<Output> iterator = outputs.iterator();
+		while(iterator.hasNext()) {
+			if(iterator.next().droppable) {
+				iterator.remove();
+				return true;
+			}
+		}
+		return droppable; //Queue only holds responses, the new output is the one dropped
+	}
+
+	/**
+	 * Writes the queued outputs to the client until the queue is empty or the stream is saturated
+	 * Consecutive outputs are gathered so they are sent with a single write
+	 */
+	private void drain() {
+		byte[] gathered = null;
+		try {
+			while(true) {
+				byte[] bytes;
+				int length;
+				synchronized(this) {
+					if(closed || outputs.isEmpty()) {
+						draining = false;
+						return;
+					}
+					if(out instanceof NonBlockingOutput && ((NonBlockingOutput) out).isSaturated()) {
+						draining = false;
+						break; //Resumed when the stream has sent its bytes
+					}
+
+					Output first = outputs.poll();
+					if(outputs.isEmpty() || first.bytes.length + outputs.peek().bytes.length > MAX_WRITE_SIZE) {
+						bytes = first.bytes;
+						length = bytes.length;
+					} else {
+						if(gathered == null)
+							gathered = new byte[MAX_WRITE_SIZE];
+						System.arraycopy(first.bytes, 0, gathered, 0, first.bytes.length);
+						length = first.bytes.length;
+						while(!outputs.isEmpty() && length + outputs.peek().bytes.length <= MAX_WRITE_SIZE) {
+							byte[] next = outputs.poll().bytes;
+							System.arraycopy(next, 0, gathered, length, next.length);
+							length += next.length;
+						}
+						bytes = gathered;
+					}
+				}
+
+				writeStartedAt = System.currentTimeMillis();
+				try {
+					out.write(bytes, 0, length);
+					out.flush();
+				} finally {
+					writeStartedAt = 0;
+				}
+				Metrics.getInstance().bytesSent(length);
+			}
+		} catch(Exception e) {
+			synchronized(this) {
+				draining = false;
+			}
+			onFailure.run();
+			return;
+		}
+
+		//Stream may have been drained between the saturation check and the end of the drain
+		if(!((NonBlockingOutput) out).isSaturated())
+			resume();
+	}
+
+	/**
+	 * Returns the writers, a fixed pool of "writerThreads" threads (8 by default)
+	 */
+	private static synchronized ExecutorService getWriters() {
+		if(writers == null) {
+			int threads = 8;
+			try {
+				threads = Math.max(1, Config.getConfig().optInt("writerThreads", 8));
+			} catch(Exception e) {}
+			writers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "session-writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return writers;
+	}
+
+	/**
+	 * Encoded output waiting to be sent
+	 */
+	private static class Output {
+		private byte[] bytes;
+		private boolean droppable;
+
+		private Output(byte[] bytes, boolean droppable) {
+			this.bytes = bytes;
+			this.droppable = droppable;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.chatalk.app.protocol;
+
+import java.util.HashMap;
+
+/**
+ * Constants of the binary protocol
+ * Every response is sent as a frame: frame length (varint), opcode (1 byte) and payload
+ * Response codes are sent as a single opcode without payload, other responses use the following opcodes:
+ * TEXT -> string not found in the response codes table
+ * MESSAGE -> LogMessage: date (varlong), type (varint), author, recipient and content (strings)
+ * MESSAGE_LIST -> number of messages (varint) followed by the messages
+ * STRING_LIST -> number of strings (varint) followed by the strings
+ * CURSOR -> history cursor (varlong)
+ * Strings are sent as their UTF-8 length + 1 (varint) followed by their bytes, a length of 0 stands for null
+ * The table must be kept identical in the client application
+ */
+public class Protocol {
+	public static final byte TEXT = 0x40;
+	public static final byte MESSAGE = 0x41;
+	public static final byte MESSAGE_LIST = 0x42;
+	public static final byte STRING_LIST = 0x43;
+	public static final byte CURSOR = 0x44;
+
+	/**
+	 * Response codes, their opcode is their index + 1
+	 * New codes must be appended to keep the existing opcodes unchanged
+	 */
+	private static final String[] RESPONSE_CODES = {
+		"reg", "login", "message", "broadcast", "whoseonline", "wholasthr", "block", "ublock", "logout", "history", "protocol",
+		"invalidCommand", "userIsLoggedIn", "usernameAlreadyExists", "userRegistered", "usernameCannotBeLessThan3Chars", "passwordCannotBeLessThan6Chars",
+		"accessRestricted", "userAlreadyLoggedIn", "loginSuccessful", "invalidCredentials", "notLoggedIn", "invalidRecipient", "authorIsBlocked",
+		"recipientNotFound", "recipientIsBlocked", "messageSaved", "messageReceived", "invalidUser", "userNotFound", "userAlreadyBlocked",
+		"userBlocked", "userNotBlocked", "userUnblocked", "loggedOut", "binary", "legacy",
+		"rateLimited"
+	};
+
+	/**
+	 * Opcodes keyed by response code
+	 */
+	private static final HashMap<String, Byte> OPCODES = new HashMap<>();
+	static {
+		for(int i = 0; i < RESPONSE_CODES.length; i++)
+			OPCODES.put(RESPONSE_CODES[i], (byte) (i + 1));
+	}
+
+	/**
+	 * Returns the opcode of a response code
+	 * @param code Response code
+	 * @return The opcode or 0 if the string is not a response code
+	 */
+	public static byte opcodeOf(String code) {
+		Byte opcode = OPCODES.get(code);
+		return opcode == null ? 0 : opcode;
+	}
+
+	/**
+	 * Returns the response code of an opcode
+	 * @param opcode Opcode
+	 * @return The response code or null if the opcode is not a response code
+	 */
+	public static String codeOf(byte opcode) {
+		return opcode >= 1 && opcode <= RESPONSE_CODES.length ? RESPONSE_CODES[opcode - 1] : null;
+	}
+}
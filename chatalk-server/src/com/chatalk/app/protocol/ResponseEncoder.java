@@ -0,0 +1,25 @@
+package com.chatalk.app.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes the responses sent to the client
+ * Encoded responses are self-contained so the same bytes can be sent on any connection using the same encoder
+ */
+public interface ResponseEncoder {
+	/**
+	 * Writes what the client expects before the first response, if anything
+	 * @param out Stream connected to the client
+	 * @throws IOException if communication with the client failed
+	 */
+	void writeHeader(OutputStream out) throws IOException;
+
+	/**
+	 * Encodes a response
+	 * @param response Response code, LogMessage, list of LogMessages, list of usernames or history cursor
+	 * @return Bytes to be sent to the client
+	 * @throws IOException if the response cannot be encoded
+	 */
+	byte[] encode(Object response) throws IOException;
+}
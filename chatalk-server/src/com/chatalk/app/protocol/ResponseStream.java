@@ -0,0 +1,155 @@
+package com.chatalk.app.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream used to send responses to a client
+ * Starts with the legacy Java serialization, the binary protocol can be switched to once negotiated
+ * Responses are encoded by the caller and handed to the client's outbound queue, they are never written by the caller's thread
+ * The responses to a command are gathered between begin() and commit() and queued as a whole,
+ * so messages pushed by other sessions can never be interleaved with them
+ */
+public class ResponseStream {
+	/**
+	 * Outputs waiting to be sent to the client
+	 */
+	private OutboundQueue queue;
+
+	/**
+	 * Encoder of the protocol in use
+	 */
+	private ResponseEncoder encoder;
+
+	/**
+	 * Responses to the command being processed, null outside of a command
+	 */
+	private ByteArrayOutputStream response;
+
+	/**
+	 * Thread processing the command
+	 */
+	private Thread responseOwner;
+
+	/**
+	 * Encoder to be used once the responses to the command being processed are queued
+	 */
+	private ResponseEncoder nextEncoder;
+
+
+	/**
+	 * @param out Stream connected to the client
+	 * @param queueSize Maximum number of outputs waiting to be sent
+	 * @param slowConsumerPolicy dropOldest or disconnect
+	 * @param onFailure Executed when the client has to be disconnected
+	 * @throws IOException if communication with the client failed
+	 */
+	public ResponseStream(OutputStream out, int queueSize, String slowConsumerPolicy, Runnable onFailure) throws IOException {
+		this.encoder = LegacyEncoder.INSTANCE;
+		encoder.writeHeader(out); //Nothing can be queued yet, the header is written right away
+		queue = new OutboundQueue(out, queueSize, slowConsumerPolicy, onFailure);
+	}
+
+	/**
+	 * Starts gathering the responses to a command
+	 */
+	public synchronized void begin() {
+		response = new ByteArrayOutputStream(256);
+		responseOwner = Thread.currentThread();
+	}
+
+	/**
+	 * Queues the responses gathered since begin()
+	 */
+	public synchronized void commit() {
+		if(response != null && response.size() > 0)
+			queue.offer(response.toByteArray(), false);
+		response = null;
+		responseOwner = null;
+
+		if(nextEncoder != null) {
+			encoder = nextEncoder;
+			nextEncoder = null;
+		}
+	}
+
+	/**
+	 * Sends a response to the client
+	 * Responses written by the thread processing a command are sent when the command is committed
+	 * @param response Response code, LogMessage, list of LogMessages, list of usernames or history cursor
+	 * @throws IOException if the response cannot be encoded
+	 */
+	public synchronized void writeObject(Object response) throws IOException {
+		byte[] bytes = encoder.encode(response);
+		if(this.response != null && responseOwner == Thread.currentThread())
+			this.response.write(bytes);
+		else
+			queue.offer(bytes, false);
+	}
+
+	/**
+	 * Sends responses encoded once for many requests, such as the list of online users
+	 * Written like writeObject(), the responses are never dropped
+	 * @param frame Shared responses
+	 * @throws IOException if the responses cannot be encoded
+	 */
+	public synchronized void writeFrame(SharedFrame frame) throws IOException {
+		byte[] bytes = frame.encode(encoder);
+		if(this.response != null && responseOwner == Thread.currentThread())
+			this.response.write(bytes);
+		else
+			queue.offer(bytes, false);
+	}
+
+	/**
+	 * Sends several responses that must not be separated, outside of any command
+	 * @param responses Responses to be sent together
+	 * @throws IOException if the responses cannot be encoded
+	 */
+	public synchronized void send(Object... responses) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		for(Object response : responses)
+			bytes.write(encoder.encode(response));
+		queue.offer(bytes.toByteArray(), false);
+	}
+
+	/**
+	 * Pushes responses shared with other clients, such as a received message
+	 * Pushed responses may be dropped if the client does not read fast enough
+	 * @param frame Shared responses
+	 * @throws IOException if the responses cannot be encoded
+	 */
+	public synchronized void push(SharedFrame frame) throws IOException {
+		queue.offer(frame.encode(encoder), true);
+	}
+
+	/**
+	 * Switches to another protocol
+	 * The acknowledgement is the last response sent with the current protocol,
+	 * the new encoder is used from the moment the responses to the command are queued
+	 * @param acknowledgement Last response sent with the current protocol
+	 * @param encoder Encoder of the new protocol
+	 * @throws IOException if communication with the client failed
+	 */
+	public synchronized void switchEncoder(Object acknowledgement, ResponseEncoder encoder) throws IOException {
+		boolean standalone = response == null;
+		if(standalone)
+			begin();
+
+		writeObject(acknowledgement);
+		encoder.writeHeader(response);
+		nextEncoder = encoder;
+
+		if(standalone)
+			commit();
+	}
+
+	/**
+	 * Closes the stream, responses not sent yet are discarded
+	 * @throws IOException if stream could not be closed
+	 */
+	public void close() throws IOException {
+		queue.close();
+	}
+}
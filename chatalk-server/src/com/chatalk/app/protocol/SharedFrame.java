@@ -0,0 +1,44 @@
+package com.chatalk.app.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Responses pushed to several clients at once, such as a broadcast message
+ * The responses are encoded once per protocol and the same bytes are queued for every recipient
+ */
+public class SharedFrame {
+	/**
+	 * Responses making up the frame, sent together
+	 */
+	private Object[] responses;
+
+	/**
+	 * Encoded responses keyed by encoder
+	 */
+	private ConcurrentHashMap<ResponseEncoder, byte[]> encoded = new ConcurrentHashMap<>(2);
+
+
+	public SharedFrame(Object... responses) {
+		this.responses = responses;
+	}
+
+	/**
+	 * Returns the responses encoded with a given encoder, encoding them on first call
+	 * @param encoder Encoder of the recipient's protocol
+	 * @return Bytes to be sent to the recipient
+	 * @throws IOException if the responses cannot be encoded
+	 */
+	public byte[] encode(ResponseEncoder encoder) throws IOException {
+		byte[] bytes = encoded.get(encoder);
+		if(bytes == null) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for(Object response : responses)
+				out.write(encoder.encode(response));
+			bytes = out.toByteArray();
+			encoded.put(encoder, bytes);
+		}
+		return bytes;
+	}
+}
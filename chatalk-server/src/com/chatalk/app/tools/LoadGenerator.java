@@ -0,0 +1,386 @@
+package com.chatalk.app.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.chatalk.app.models.LogMessage;
+import com.chatalk.app.util.LatencyHistogram;
+
+/**
+ * Headless load generator speaking the client protocol
+ * Simulates virtual users, each with its own connection: commands are sent as text lines and responses are read as serialized objects,
+ * exactly like the JavaFX client before it negotiates the binary protocol
+ * Every virtual user registers, logs in, then sends commands picked from a weighted mix, the overall rate being fixed (open loop)
+ * Reports the latency percentiles of every command and the number of messages delivered per second
+ * Latencies are measured from the time each command was scheduled, so a server that falls behind is charged for the commands
+ * waiting to be sent as well, and a connection that blocks never delays the commands of the other virtual users
+ *
+ * Usage: LoadGenerator [--host localhost] [--port 6789] [--users 1000] [--rate 1000] [--duration 60]
+ *                      [--mix message=60,whoseonline=35,broadcast=5] [--prefix lg]
+ * The server's rateLimits apply to the virtual users, raise them to find the saturation point of the server itself
+ */
+public class LoadGenerator {
+	/**
+	 * Latency of each command in microseconds, keyed by command
+	 */
+	private static LinkedHashMap<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+	/**
+	 * Commands rejected with rateLimited, keyed by command
+	 */
+	private static LinkedHashMap<String, AtomicLong> rejections = new LinkedHashMap<>();
+
+	/**
+	 * Time between the sending of a message and its reception by a virtual user in ms
+	 */
+	private static LatencyHistogram deliveries = new LatencyHistogram();
+
+	/**
+	 * Connections lost before the end of the run
+	 */
+	private static AtomicLong disconnections = new AtomicLong();
+
+	private static final String[] COMMANDS = {"reg", "login", "message", "broadcast", "whoseonline"};
+
+	/**
+	 * Threads writing the commands of the virtual users, the scheduler threads never write to a connection
+	 */
+	private static ExecutorService writers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		for(String command : COMMANDS) {
+			latencies.put(command, new LatencyHistogram());
+			rejections.put(command, new AtomicLong());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		//Default options, overridden by the command line
+		String host = "localhost";
+		int port = 6789;
+		int users = 1000;
+		double rate = 1000;
+		int duration = 60;
+		String mix = "message=60,whoseonline=35,broadcast=5";
+		String prefix = "lg";
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i];
+			String value = args[i+1];
+			if(option.equals("--host"))
+				host = value;
+			else if(option.equals("--port"))
+				port = Integer.parseInt(value);
+			else if(option.equals("--users"))
+				users = Integer.parseInt(value);
+			else if(option.equals("--rate"))
+				rate = Double.parseDouble(value);
+			else if(option.equals("--duration"))
+				duration = Integer.parseInt(value);
+			else if(option.equals("--mix"))
+				mix = value;
+			else if(option.equals("--prefix"))
+				prefix = value;
+			else
+				throw new IllegalArgumentException("Unknown option " + option);
+		}
+		String[] commandMix = parseMix(mix);
+
+		//Connect the virtual users one after the other, each one registers and logs in right away
+		System.out.println("Connecting " + users + " virtual users to " + host + ":" + port);
+		ArrayList<VirtualUser> virtualUsers = new ArrayList<>(users);
+		for(int i = 0; i < users; i++) {
+			VirtualUser user = new VirtualUser(prefix + i, users, prefix);
+			user.connect(host, port);
+			virtualUsers.add(user);
+		}
+
+		//Commands are spread evenly over the users, each user sending at a fixed interval
+		long start = System.nanoTime();
+		long intervalNanos = (long) (1000000000.0 * users / rate);
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		for(int i = 0; i < users; i++) {
+			VirtualUser user = virtualUsers.get(i);
+			long delay = intervalNanos * i / users;
+			long first = start + delay;
+			scheduler.scheduleAtFixedRate(new Runnable() {
+				/**
+				 * Number of commands scheduled so far
+				 */
+				private long scheduled;
+
+				public void run() {
+					//Time the command should have been sent, even if the scheduler runs late
+					long sendTime = first + scheduled++ * intervalNanos;
+					user.send(commandMix[ThreadLocalRandom.current().nextInt(commandMix.length)], sendTime);
+				}
+			}, delay, intervalNanos, TimeUnit.NANOSECONDS);
+		}
+
+		//Progress report every 10 seconds
+		long end = start + duration * 1000000000L;
+		long delivered = 0;
+		long reported = start;
+		while(System.nanoTime() < end) {
+			Thread.sleep(Math.min(10000, Math.max(1, (end - System.nanoTime()) / 1000000)));
+			long now = System.nanoTime();
+			long total = deliveries.getCount();
+			System.out.println(String.format("[%3ds] messages delivered: %d (%.0f/s)", (now - start) / 1000000000L, total, (total - delivered) * 1000000000.0 / (now - reported)));
+			delivered = total;
+			reported = now;
+		}
+		scheduler.shutdownNow();
+		double elapsed = (System.nanoTime() - start) / 1000000000.0;
+
+		//Let the responses in flight arrive
+		Thread.sleep(2000);
+		long unanswered = 0;
+		for(VirtualUser user : virtualUsers) {
+			unanswered += user.pending.size() + user.outbox.size();
+			user.close();
+		}
+
+		report(elapsed, unanswered);
+	}
+
+	/**
+	 * Prints the results of the run
+	 */
+	private static void report(double elapsed, long unanswered) {
+		System.out.println();
+		System.out.println(String.format("%-12s %10s %10s %10s %10s %10s %10s %10s", "command", "count", "rejected", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "per sec"));
+		for(String command : COMMANDS) {
+			LatencyHistogram histogram = latencies.get(command);
+			System.out.println(String.format("%-12s %10d %10d %10.2f %10.2f %10.2f %10.2f %10.1f", command, histogram.getCount(), rejections.get(command).get(),
+					histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+					histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0, histogram.getCount() / elapsed));
+		}
+		System.out.println();
+		System.out.println(String.format("messages delivered: %d (%.1f/s), delivery latency p50 %d ms, p99 %d ms, p99.9 %d ms, max %d ms",
+				deliveries.getCount(), deliveries.getCount() / elapsed, deliveries.getValueAtPercentile(50),
+				deliveries.getValueAtPercentile(99), deliveries.getValueAtPercentile(99.9), deliveries.getMax()));
+		System.out.println("unanswered commands: " + unanswered + ", connections lost: " + disconnections.get());
+	}
+
+	/**
+	 * Expands a mix such as message=60,broadcast=5 into a table of commands picked uniformly
+	 */
+	private static String[] parseMix(String mix) {
+		ArrayList<String> table = new ArrayList<>();
+		for(String entry : mix.split(",")) {
+			String[] parts = entry.split("=");
+			if(!latencies.containsKey(parts[0]))
+				throw new IllegalArgumentException("Unknown command " + parts[0]);
+			for(int i = 0; i < Integer.parseInt(parts[1]); i++)
+				table.add(parts[0]);
+		}
+		if(table.isEmpty())
+			throw new IllegalArgumentException("Empty mix");
+
+		return table.toArray(new String[table.size()]);
+	}
+
+	/**
+	 * Command scheduled and not answered yet
+	 */
+	private static class Pending {
+		private String command;
+
+		/**
+		 * Time the command was scheduled, latencies are measured from it
+		 */
+		private long sent;
+
+		Pending(String command, long sent) {
+			this.command = command;
+			this.sent = sent;
+		}
+	}
+
+	/**
+	 * Virtual user with its own connection
+	 * Commands are queued by the scheduler and written by a writer thread, responses are read by a dedicated thread and matched
+	 * with the commands in order
+	 */
+	private static class VirtualUser implements Runnable {
+		private String username;
+		private int users;
+		private String prefix;
+		private Random random = new Random();
+
+		private Socket socket;
+		private OutputStream out;
+		private ObjectInputStream in;
+
+		/**
+		 * Commands scheduled and not written yet, in the order they were scheduled
+		 */
+		private ConcurrentLinkedQueue<Pending> outbox = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Whether a writer thread is writing the outbox
+		 */
+		private AtomicBoolean writing = new AtomicBoolean();
+
+		/**
+		 * Commands waiting for their response, in the order they were sent
+		 */
+		private ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+		private volatile boolean closed;
+
+		VirtualUser(String username, int users, String prefix) {
+			this.username = username;
+			this.users = users;
+			this.prefix = prefix;
+		}
+
+		/**
+		 * Connects to the server, then registers and logs in
+		 */
+		void connect(String host, int port) throws IOException {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			out = new BufferedOutputStream(socket.getOutputStream());
+			in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			Thread reader = new Thread(null, this, "reader-" + username, 256 * 1024);
+			reader.setDaemon(true);
+			reader.start();
+
+			send("reg", System.nanoTime());
+			send("login", System.nanoTime());
+		}
+
+		/**
+		 * Queues a command and makes sure a writer thread sends it
+		 * Never blocks, a connection that cannot be written to only delays its own commands
+		 * @param command Command name
+		 * @param scheduled Time the command is sent at
+		 */
+		void send(String command, long scheduled) {
+			if(closed)
+				return;
+
+			outbox.add(new Pending(command, scheduled));
+			if(writing.compareAndSet(false, true))
+				writers.execute(this::write);
+		}
+
+		/**
+		 * Writes the queued commands, flushing once the outbox is empty
+		 */
+		private void write() {
+			try {
+				Pending command;
+				while(!closed && (command = outbox.poll()) != null) {
+					pending.add(command);
+					out.write((line(command.command) + "\n").getBytes(StandardCharsets.UTF_8));
+					if(outbox.isEmpty())
+						out.flush();
+				}
+			} catch(IOException e) {
+				lost();
+			} finally {
+				writing.set(false);
+			}
+
+			//A command queued after the outbox was found empty
+			if(!closed && !outbox.isEmpty() && writing.compareAndSet(false, true))
+				writers.execute(this::write);
+		}
+
+		/**
+		 * Builds a command with random arguments
+		 */
+		private String line(String command) {
+			String line;
+			if(command.equals("reg") || command.equals("login"))
+				line = command + " " + username + " password";
+			else if(command.equals("message")) {
+				//Any other virtual user
+				String recipient;
+				do {
+					recipient = prefix + random.nextInt(users);
+				} while(users > 1 && recipient.equals(username));
+				line = "message " + recipient + " load test " + System.nanoTime();
+			} else if(command.equals("broadcast"))
+				line = "broadcast load test " + System.nanoTime();
+			else
+				line = command;
+
+			return line;
+		}
+
+		/**
+		 * Reads the responses until the connection is closed
+		 */
+		public void run() {
+			try {
+				while(true) {
+					Object response = in.readObject();
+
+					//Message pushed by the server
+					if(response.equals("messageReceived")) {
+						LogMessage message = (LogMessage) in.readObject();
+						deliveries.record(System.currentTimeMillis() - message.getTimestamp());
+						continue;
+					}
+
+					Pending command = pending.poll();
+					if(command == null)
+						continue;
+
+					//Responses start with the command, unless the command is unknown
+					if(!response.equals("invalidCommand")) {
+						Object result = in.readObject();
+						if(result.equals("rateLimited")) {
+							rejections.get(command.command).incrementAndGet();
+							continue;
+						}
+						if(result.equals("loginSuccessful")) {
+							in.readObject(); //Logs
+							in.readObject(); //History cursor
+						}
+						latencies.get(command.command).record((System.nanoTime() - command.sent) / 1000);
+					}
+				}
+			} catch(Exception e) {
+				lost();
+			}
+		}
+
+		private void lost() {
+			if(!closed) {
+				closed = true;
+				disconnections.incrementAndGet();
+			}
+		}
+
+		void close() {
+			closed = true;
+			try {
+				socket.close();
+			} catch(IOException e) {}
+		}
+	}
+}
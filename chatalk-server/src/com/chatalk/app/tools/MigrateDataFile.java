@@ -0,0 +1,27 @@
+package com.chatalk.app.tools;
+
+import java.io.File;
+
+import com.chatalk.app.models.MessageLog;
+
+/**
+ * One-shot migration of the JSON data file
+ * Moves the log messages of resources/data.json to the message log segments without starting the server
+ * Useful for data files too large to be migrated during a normal startup
+ * Must be run from the server directory while the server is stopped
+ */
+public class MigrateDataFile {
+	public static void main(String[] args) throws Exception {
+		File dataFile = new File("resources/data.json");
+		System.out.println("Migrating " + dataFile.getPath() + " (" + dataFile.length() + " bytes)");
+
+		long start = System.nanoTime();
+		MessageLog log = MessageLog.getInstance();
+		long duration = (System.nanoTime() - start) / 1000000;
+
+		if(log.getImportedMessages() == 0)
+			System.out.println("Nothing to migrate, the message log already exists or the data file has no logs");
+		else
+			System.out.println("Moved " + log.getImportedMessages() + " messages to the message log in " + duration + " ms");
+	}
+}
@@ -0,0 +1,433 @@
+package com.chatalk.app.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser reading a JSON document one token at a time
+ * Only the value being read is kept in memory, so documents much larger than the heap can be walked through
+ * Objects and arrays are entered and left explicitly, values that are not needed are skipped without being decoded
+ */
+public class JsonReader implements Closeable {
+	/**
+	 * Kinds of token
+	 */
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	//Position in the document, kept for each nesting level
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private Reader in;
+
+	private char[] buffer = new char[65536];
+	private int position;
+	private int limit;
+
+	/**
+	 * Number of characters consumed before the buffer, used to locate syntax errors
+	 */
+	private long offset;
+
+	private int[] stack = new int[32];
+	private int depth;
+
+	/**
+	 * Next token, null until peeked
+	 */
+	private Token peeked;
+
+
+	public JsonReader(Reader in) {
+		this.in = in;
+		stack[depth++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Returns the kind of the next token without consuming it
+	 * @return Next token
+	 * @throws IOException if the document could not be read or is malformed
+	 */
+	public Token peek() throws IOException {
+		if(peeked != null)
+			return peeked;
+
+		int context = stack[depth-1];
+		if(context == EMPTY_ARRAY || context == NONEMPTY_ARRAY) {
+			stack[depth-1] = NONEMPTY_ARRAY;
+			int c = nextNonWhitespace(true);
+			if(c == ']')
+				return peeked = Token.END_ARRAY;
+			if(context == NONEMPTY_ARRAY) {
+				if(c != ',')
+					throw syntaxError("Expected ',' or ']'");
+			} else
+				position--;
+		} else if(context == EMPTY_OBJECT || context == NONEMPTY_OBJECT) {
+			int c = nextNonWhitespace(true);
+			if(c == '}')
+				return peeked = Token.END_OBJECT;
+			if(context == NONEMPTY_OBJECT) {
+				if(c != ',')
+					throw syntaxError("Expected ',' or '}'");
+				c = nextNonWhitespace(true);
+			}
+			if(c != '"')
+				throw syntaxError("Expected name");
+			stack[depth-1] = DANGLING_NAME;
+			return peeked = Token.NAME;
+		} else if(context == DANGLING_NAME) {
+			if(nextNonWhitespace(true) != ':')
+				throw syntaxError("Expected ':'");
+			stack[depth-1] = NONEMPTY_OBJECT;
+		} else if(context == EMPTY_DOCUMENT)
+			stack[depth-1] = NONEMPTY_DOCUMENT;
+		else {
+			if(nextNonWhitespace(false) != -1)
+				throw syntaxError("Expected end of document");
+			return peeked = Token.END_DOCUMENT;
+		}
+
+		//A value follows
+		int c = nextNonWhitespace(true);
+		switch(c) {
+			case '{':
+				return peeked = Token.BEGIN_OBJECT;
+			case '[':
+				return peeked = Token.BEGIN_ARRAY;
+			case '"':
+				return peeked = Token.STRING;
+			case 't':
+			case 'f':
+				position--;
+				return peeked = Token.BOOLEAN;
+			case 'n':
+				position--;
+				return peeked = Token.NULL;
+			default:
+				if(c != '-' && (c < '0' || c > '9'))
+					throw syntaxError("Unexpected character");
+				position--;
+				return peeked = Token.NUMBER;
+		}
+	}
+
+	/**
+	 * Checks if the current object or array has another element
+	 * @return false if the end of the object or array was reached
+	 * @throws IOException if the document could not be read or is malformed
+	 */
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	/**
+	 * Reads the name of the next member of the current object
+	 * @return Member name
+	 * @throws IOException if the document could not be read or is malformed
+	 */
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		return readString();
+	}
+
+	/**
+	 * Reads a string value, numbers are returned as written in the document
+	 * @return String value
+	 * @throws IOException if the document could not be read or the next value is not a string
+	 */
+	public String nextString() throws IOException {
+		Token token = peek();
+		if(token == Token.NUMBER) {
+			peeked = null;
+			return readLiteral();
+		}
+		expect(Token.STRING);
+		return readString();
+	}
+
+	/**
+	 * Reads a number value, strings containing a number are accepted
+	 * @return Number value
+	 * @throws IOException if the document could not be read or the next value is not a number
+	 */
+	public long nextLong() throws IOException {
+		String number = nextString();
+		try {
+			return Long.parseLong(number);
+		} catch(NumberFormatException e) {
+			try {
+				return (long) Double.parseDouble(number);
+			} catch(NumberFormatException e2) {
+				throw syntaxError("Expected a number");
+			}
+		}
+	}
+
+	public int nextInt() throws IOException {
+		long number = nextLong();
+		if(number != (int) number)
+			throw syntaxError("Expected an int");
+		return (int) number;
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		String literal = readLiteral();
+		if(literal.equals("true"))
+			return true;
+		if(literal.equals("false"))
+			return false;
+		throw syntaxError("Expected a boolean");
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+		if(!readLiteral().equals("null"))
+			throw syntaxError("Expected null");
+	}
+
+	/**
+	 * Skips the next value, objects and arrays included, without decoding it
+	 * @throws IOException if the document could not be read or is malformed
+	 */
+	public void skipValue() throws IOException {
+		int level = 0;
+		do {
+			switch(peek()) {
+				case BEGIN_OBJECT:
+					beginObject();
+					level++;
+					break;
+				case BEGIN_ARRAY:
+					beginArray();
+					level++;
+					break;
+				case END_OBJECT:
+					endObject();
+					level--;
+					break;
+				case END_ARRAY:
+					endArray();
+					level--;
+					break;
+				case NAME:
+				case STRING:
+					peeked = null;
+					skipString();
+					break;
+				case END_DOCUMENT:
+					throw syntaxError("Unexpected end of document");
+				default:
+					peeked = null;
+					readLiteral();
+			}
+		} while(level > 0);
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void expect(Token token) throws IOException {
+		if(peek() != token)
+			throw syntaxError("Expected " + token + " but was " + peeked);
+		peeked = null;
+	}
+
+	private void push(int context) {
+		if(depth == stack.length) {
+			int[] larger = new int[depth * 2];
+			System.arraycopy(stack, 0, larger, 0, depth);
+			stack = larger;
+		}
+		stack[depth++] = context;
+	}
+
+	/**
+	 * Makes sure a given number of characters are available in the buffer
+	 * @return false if the end of the document is reached first
+	 */
+	private boolean fill(int minimum) throws IOException {
+		if(position > 0) {
+			offset += position;
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		while(limit < minimum) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if(read == -1)
+				return false;
+			limit += read;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next character that is not a whitespace
+	 * @param required true if the end of the document is an error
+	 * @return The character or -1 if the end of the document is reached
+	 */
+	private int nextNonWhitespace(boolean required) throws IOException {
+		while(true) {
+			if(position == limit && !fill(1)) {
+				if(required)
+					throw syntaxError("Unexpected end of document");
+				return -1;
+			}
+			char c = buffer[position++];
+			if(c != ' ' && c != '\n' && c != '\r' && c != '\t')
+				return c;
+		}
+	}
+
+	/**
+	 * Reads a string whose opening quote has been consumed
+	 */
+	private String readString() throws IOException {
+		StringBuilder builder = null;
+		while(true) {
+			int start = position;
+			while(position < limit) {
+				char c = buffer[position++];
+				if(c == '"') {
+					if(builder == null)
+						return new String(buffer, start, position - start - 1);
+					builder.append(buffer, start, position - start - 1);
+					return builder.toString();
+				} else if(c == '\\') {
+					if(builder == null)
+						builder = new StringBuilder(Math.max(16, (position - start) * 2));
+					builder.append(buffer, start, position - start - 1);
+					builder.append(readEscape());
+					start = position;
+				}
+			}
+
+			//Buffer exhausted in the middle of the string
+			if(builder == null)
+				builder = new StringBuilder(Math.max(16, (position - start) * 2));
+			builder.append(buffer, start, position - start);
+			if(!fill(1))
+				throw syntaxError("Unterminated string");
+		}
+	}
+
+	/**
+	 * Skips a string whose opening quote has been consumed
+	 */
+	private void skipString() throws IOException {
+		while(true) {
+			while(position < limit) {
+				char c = buffer[position++];
+				if(c == '"')
+					return;
+				if(c == '\\') {
+					if(position == limit && !fill(1))
+						throw syntaxError("Unterminated string");
+					if(buffer[position++] == 'u') {
+						if(limit - position < 4 && !fill(4))
+							throw syntaxError("Unterminated escape sequence");
+						position += 4;
+					}
+				}
+			}
+			if(!fill(1))
+				throw syntaxError("Unterminated string");
+		}
+	}
+
+	/**
+	 * Decodes an escape sequence whose backslash has been consumed
+	 */
+	private char readEscape() throws IOException {
+		if(position == limit && !fill(1))
+			throw syntaxError("Unterminated escape sequence");
+
+		char c = buffer[position++];
+		switch(c) {
+			case 'u':
+				if(limit - position < 4 && !fill(4))
+					throw syntaxError("Unterminated escape sequence");
+				char result = 0;
+				for(int i = 0; i < 4; i++) {
+					int digit = Character.digit(buffer[position++], 16);
+					if(digit < 0)
+						throw syntaxError("Invalid escape sequence");
+					result = (char) ((result << 4) + digit);
+				}
+				return result;
+			case 't':
+				return '\t';
+			case 'b':
+				return '\b';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 'f':
+				return '\f';
+			default: //Quote, backslash and slash stand for themselves
+				return c;
+		}
+	}
+
+	/**
+	 * Reads a number, true, false or null literal
+	 */
+	private String readLiteral() throws IOException {
+		StringBuilder builder = null;
+		while(true) {
+			int start = position;
+			while(position < limit) {
+				char c = buffer[position];
+				if(c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ':') {
+					if(builder == null)
+						return new String(buffer, start, position - start);
+					builder.append(buffer, start, position - start);
+					return builder.toString();
+				}
+				position++;
+			}
+			if(builder == null)
+				builder = new StringBuilder();
+			builder.append(buffer, start, position - start);
+			if(!fill(1))
+				return builder.toString(); //Literal at the end of the document
+		}
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at character " + (offset + position));
+	}
+}
@@ -0,0 +1,121 @@
+package com.chatalk.app.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with a bounded relative error
+ * Values are counted in log-linear buckets: exact below 128, then 64 buckets per power of two (under 1.6% error)
+ * Recording is lock-free and can be done by several threads at once, the memory used does not depend on the number of values
+ * Count and sum are striped so that threads recording at the same time do not contend on them
+ */
+public class LatencyHistogram {
+	/**
+	 * Values below this limit have their own bucket
+	 */
+	private static final int LINEAR_LIMIT = 128;
+
+	/**
+	 * Buckets per power of two above the linear part
+	 */
+	private static final int SUB_BUCKETS = 64;
+
+	/**
+	 * Number of values recorded in each bucket
+	 */
+	private AtomicLongArray counts;
+
+	private LongAdder count = new LongAdder();
+	private LongAdder sum = new LongAdder();
+	private AtomicLong max = new AtomicLong();
+
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(indexOf(Long.MAX_VALUE) + 1);
+	}
+
+	/**
+	 * Records a value
+	 * @param value Latency, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+
+		counts.incrementAndGet(indexOf(value));
+		count.increment();
+		sum.add(value);
+
+		long currentMax;
+		while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value));
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 * @return number of values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the sum of the values recorded
+	 * @return sum of the values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long values = count.sum();
+		return values == 0 ? 0 : (double) sum.sum() / values;
+	}
+
+	/**
+	 * Returns the value below which a given percentage of the recorded values fall
+	 * @param percentile Percentage, between 0 and 100
+	 * @return Highest value of the bucket reaching the percentile, 0 if no value was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long values = count.sum();
+		if(values == 0)
+			return 0;
+
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * values));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if(seen >= target)
+				return Math.min(highestValueOf(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 */
+	private static int indexOf(long value) {
+		if(value < LINEAR_LIMIT)
+			return (int) value;
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6; //value >>> shift is between 64 and 127
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * Returns the highest value counted in a bucket
+	 */
+	private static long highestValueOf(int index) {
+		if(index < LINEAR_LIMIT)
+			return index;
+
+		int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long lowest = (long) ((index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,306 @@
+package com.chatalk.app.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes snapshots of a JSON file without ever leaving it partially written
+ * Each snapshot is written through a buffered channel to a temporary file, optionally forced to the disk, then renamed over the file
+ * Either the whole file is replaced or some of its members only, the file is then streamed to keep the other members
+ * without decoding the replaced ones
+ * Snapshots are numbered as they are requested, when several writes queue up they are applied together in a single snapshot,
+ * the older ones being superseded by it
+ * Callers must not hold a lock of their own while writing, otherwise writes can never queue up
+ */
+public class SnapshotWriter {
+	/**
+	 * Size of the write buffer
+	 */
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * File the snapshots are written to
+	 */
+	private Path target;
+
+	/**
+	 * File each snapshot is written to before being renamed
+	 */
+	private Path temporary;
+
+	/**
+	 * Whether the snapshot is forced to the disk before being renamed
+	 */
+	private boolean fsync;
+
+	/**
+	 * Generation given to the last snapshot requested
+	 */
+	private long lastGeneration;
+
+	/**
+	 * Content replacing the whole file, null if only some members are replaced
+	 */
+	private JSONObject pendingData;
+
+	/**
+	 * Members waiting to be replaced
+	 */
+	private JSONObject pendingMembers = new JSONObject();
+
+	/**
+	 * Generation of the snapshot saved in the file
+	 */
+	private long writtenGeneration;
+
+	/**
+	 * Lock held while writing a snapshot
+	 */
+	private final Object writeLock = new Object();
+
+	//Metrics
+	private long snapshotsWritten;
+	private long lastDurationMillis;
+	private long maxDurationMillis;
+	private long lastSizeBytes;
+
+
+	/**
+	 * @param path File the snapshots are written to
+	 * @param fsync Force every snapshot to the disk before renaming it
+	 */
+	public SnapshotWriter(String path, boolean fsync) {
+		this.target = Paths.get(path);
+		this.temporary = Paths.get(path + ".tmp");
+		this.fsync = fsync;
+	}
+
+	/**
+	 * Writes a snapshot replacing the whole file
+	 * Returns once this snapshot, or a more recent one, is saved in the file
+	 * The data must not be modified until the method returns
+	 * @param data Content of the file
+	 * @return Generation of the snapshot
+	 * @throws IOException if the snapshot could not be written, the file is then left untouched
+	 */
+	public long write(JSONObject data) throws IOException {
+		long generation;
+		synchronized(this) {
+			generation = ++lastGeneration;
+			pendingData = data;
+			pendingMembers = new JSONObject(); //Replaced as well
+		}
+
+		return writePending(generation);
+	}
+
+	/**
+	 * Writes a snapshot replacing a member of the file, the other members are kept
+	 * Returns once this snapshot, or a more recent one, is saved in the file
+	 * The value must not be modified until the method returns
+	 * @param name Member name
+	 * @param value Member value
+	 * @return Generation of the snapshot
+	 * @throws IOException if the snapshot could not be written, the file is then left untouched
+	 */
+	public long update(String name, Object value) throws IOException {
+		long generation;
+		synchronized(this) {
+			generation = ++lastGeneration;
+			pendingMembers.put(name, value);
+		}
+
+		return writePending(generation);
+	}
+
+	/**
+	 * Writes every pending change in a single snapshot, unless a snapshot including the given generation was already written
+	 * @param generation Generation that must be saved
+	 * @return The generation
+	 */
+	private long writePending(long generation) throws IOException {
+		synchronized(writeLock) {
+			JSONObject data;
+			JSONObject members;
+			long snapshotGeneration;
+			synchronized(this) {
+				if(writtenGeneration >= generation) //Superseded by a snapshot written while waiting for the lock
+					return generation;
+				data = pendingData;
+				members = pendingMembers;
+				snapshotGeneration = lastGeneration;
+				pendingData = null;
+				pendingMembers = new JSONObject();
+			}
+
+			long start = System.nanoTime();
+			long size;
+			try {
+				JSONObject snapshot = data != null ? data : read(members);
+				for(String name : members.keySet())
+					snapshot.put(name, members.get(name));
+				size = writeFile(snapshot);
+			} catch(IOException e) {
+				synchronized(this) {
+					//Let the changes be written by the next writer, unless they were superseded since
+					if(pendingData == null) {
+						pendingData = data;
+						for(String name : members.keySet()) {
+							if(!pendingMembers.has(name))
+								pendingMembers.put(name, members.get(name));
+						}
+					}
+				}
+				throw e;
+			}
+			long duration = (System.nanoTime() - start) / 1000000;
+
+			synchronized(this) {
+				writtenGeneration = snapshotGeneration;
+				snapshotsWritten++;
+				lastDurationMillis = duration;
+				maxDurationMillis = Math.max(maxDurationMillis, duration);
+				lastSizeBytes = size;
+			}
+			return generation;
+		}
+	}
+
+	/**
+	 * Reads the file, skipping the members about to be replaced
+	 * @param replaced Members about to be replaced
+	 * @return Members kept, empty if the file does not exist
+	 */
+	private JSONObject read(JSONObject replaced) throws IOException {
+		JSONObject data = new JSONObject();
+		if(!Files.exists(target))
+			return data;
+
+		try(JsonReader reader = new JsonReader(new InputStreamReader(Files.newInputStream(target), Charset.defaultCharset()))) {
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String name = reader.nextName();
+				if(replaced.has(name))
+					reader.skipValue();
+				else
+					data.put(name, readValue(reader));
+			}
+			reader.endObject();
+		} catch(JSONException e) {
+			throw new IOException(e);
+		}
+
+		return data;
+	}
+
+	/**
+	 * Reads any value as it would be parsed by org.json
+	 */
+	private static Object readValue(JsonReader reader) throws IOException {
+		switch(reader.peek()) {
+			case BEGIN_OBJECT:
+				JSONObject object = new JSONObject();
+				reader.beginObject();
+				while(reader.hasNext()) {
+					String name = reader.nextName();
+					object.put(name, readValue(reader));
+				}
+				reader.endObject();
+				return object;
+			case BEGIN_ARRAY:
+				JSONArray array = new JSONArray();
+				reader.beginArray();
+				while(reader.hasNext())
+					array.put(readValue(reader));
+				reader.endArray();
+				return array;
+			case NUMBER:
+				return JSONObject.stringToValue(reader.nextString());
+			case BOOLEAN:
+				return reader.nextBoolean();
+			case NULL:
+				reader.nextNull();
+				return JSONObject.NULL;
+			default:
+				return reader.nextString();
+		}
+	}
+
+	/**
+	 * Writes a snapshot to the temporary file and renames it over the target
+	 * @return Size of the snapshot in bytes
+	 */
+	private long writeFile(JSONObject snapshot) throws IOException {
+		long size;
+		try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			//Only flushed, closing the writer would close the channel before it can be forced
+			Writer writer = new OutputStreamWriter(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), Charset.defaultCharset());
+			snapshot.write(writer);
+			writer.flush();
+
+			if(fsync)
+				channel.force(true);
+			size = channel.size();
+		}
+
+		try {
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		if(fsync) {
+			//Make the rename itself durable, not supported on every platform
+			Path directory = target.toAbsolutePath().getParent();
+			try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+				channel.force(true);
+			} catch(IOException e) {}
+		}
+
+		return size;
+	}
+
+	public synchronized long getWrittenGeneration() {
+		return writtenGeneration;
+	}
+
+	public synchronized long getSnapshotsWritten() {
+		return snapshotsWritten;
+	}
+
+	/**
+	 * Returns the number of snapshots that were superseded before being written
+	 * @return Number of snapshots
+	 */
+	public synchronized long getSnapshotsSkipped() {
+		return writtenGeneration - snapshotsWritten;
+	}
+
+	public synchronized long getLastDurationMillis() {
+		return lastDurationMillis;
+	}
+
+	public synchronized long getMaxDurationMillis() {
+		return maxDurationMillis;
+	}
+
+	public synchronized long getLastSizeBytes() {
+		return lastSizeBytes;
+	}
+}